@@ -0,0 +1,159 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// confidence connected growing: instead of the fixed threshold range, a
+// pixel is accepted if its value lies within mean +- k * sigma of the
+// region grown so far, so the range follows slow intensity drifts across
+// the image. the statistics start from the 3x3 neighborhood of the start
+// pixel.
+// the range is re-estimated in batches (16 accepted pixels at first, the
+// batch doubling up to MAX_BATCH): in between, the test is two integer
+// compares like the threshold test, and the accepted values are only
+// summed up (exact, in longs). at the end of a batch, its count, mean and
+// sum of squared deviations are merged into the running statistics of the
+// region (Welford/Chan), which stays numerically stable for any region
+// size.
+// growing is breadth first like the queue engine. labels and the gradient
+// criterion apply as in RegionGrowing. since the range changes while
+// growing, the region depends on the visiting order, which is why there
+// is only this one engine for it.
+class AdaptiveRegionGrowing {
+
+	// largest number of pixels accepted between two re-estimations
+	static final int MAX_BATCH = 4096;
+
+	// sigma never drops below this, so that a flat start neighborhood does
+	// not lock the range to a single value
+	static final double MIN_SIGMA = 1.0;
+
+	private final RegionGrowing grower;
+
+	// active front, kept between calls
+	private int[] queue = new int[0];
+
+	// statistics of the accepted pixels
+	private long n;
+	private double mean, m2;
+
+	// current acceptance range
+	private int lo, hi;
+
+	AdaptiveRegionGrowing(RegionGrowing grower) {
+		this.grower = grower;
+	}
+
+	// grow from startPixel, accepting values within mean +- k * sigma.
+	// returns the number of selected pixels; as in the other engines the
+	// start pixel only counts if it is reached again from a neighbor.
+	int grow(PixelInfo startPixel, SelectionMask selection, double k,
+			short[] pixels, byte[] labels, short[] gradients,
+			PixelNeighborhoodTable neighborhood) {
+		final int width = grower.width, height = grower.height;
+		// every pixel is queued at most once, plus the start pixel
+		if (queue.length < width * height + 1)
+			queue = new int[width * height + 1];
+		final int[] offsets = neighborhood.offsets;
+
+		final boolean stopAtLabels = grower.stopAtOtherSegmentedRegions;
+		final boolean useGradient = grower.useGradient;
+		final int maxGradient = grower.gradientThreshold;
+
+		// start statistics: the start pixel and its 3x3 neighborhood
+		n = 0;
+		mean = m2 = 0;
+		long sum = 0, sumSq = 0;
+		int count = 0;
+		for (int y = Math.max(startPixel.y - 1, 0); y <= Math.min(
+				startPixel.y + 1, height - 1); y++) {
+			for (int x = Math.max(startPixel.x - 1, 0); x <= Math.min(
+					startPixel.x + 1, width - 1); x++) {
+				long v = pixels[y * width + x] & 0xffff;
+				sum += v;
+				sumSq += v * v;
+				count++;
+			}
+		}
+		merge(count, sum, sumSq);
+		updateRange(k);
+
+		// the start pixel is selected but not tested, as in the other
+		// engines. accepted pixels are marked visited, rejected ones may be
+		// accepted later from another neighbor when the range has moved.
+		final VisitedMarks visited = grower.startPass();
+		selection.set(startPixel.x, startPixel.y);
+		int head = 0, tail = 0;
+		queue[tail++] = startPixel.idx;
+		int selected = 0;
+
+		// accepted values since the last re-estimation
+		int batch = 16, batchCount = 0;
+		sum = sumSq = 0;
+
+		while (head < tail) {
+			final int idx = queue[head++];
+			final int x = idx % width;
+			final int y = idx / width;
+			final boolean interior = neighborhood.isInterior(x, y);
+			for (int i = 0; i < offsets.length; i++) {
+				if (!interior && !neighborhood.isValidNeighbor(x, y, i))
+					continue;
+				final int q = idx + offsets[i];
+				final int v = pixels[q] & 0xffff;
+				if (v < lo || v > hi || visited.get(q))
+					continue;
+				if (stopAtLabels && labels[q] != 0)
+					continue;
+				if (useGradient && (gradients[q] & 0xffff) > maxGradient)
+					continue;
+
+				visited.set(q);
+				selection.set(q);
+				queue[tail++] = q;
+				selected++;
+				sum += v;
+				sumSq += (long) v * v;
+				if (++batchCount == batch) {
+					merge(batchCount, sum, sumSq);
+					updateRange(k);
+					sum = sumSq = 0;
+					batchCount = 0;
+					batch = Math.min(batch * 2, MAX_BATCH);
+				}
+			}
+		}
+		return selected;
+	}
+
+	// add a batch given by count, sum and sum of squares to the running
+	// statistics
+	private void merge(int count, long sum, long sumSq) {
+		if (count == 0)
+			return;
+		final double batchMean = (double) sum / count;
+		// sum of squared deviations from the batch mean
+		final double batchM2 = Math.max(0, sumSq - (double) sum * batchMean);
+		final long total = n + count;
+		final double delta = batchMean - mean;
+		mean += delta * count / total;
+		m2 += batchM2 + delta * delta * n * count / total;
+		n = total;
+	}
+
+	private void updateRange(double k) {
+		double sigma = (n > 1) ? Math.sqrt(m2 / (n - 1)) : 0;
+		sigma = Math.max(sigma, MIN_SIGMA);
+		lo = (int) Math.max(0, Math.ceil(mean - k * sigma));
+		hi = (int) Math.min(0xffff, Math.floor(mean + k * sigma));
+	}
+
+	// statistics of the last grown region
+	double getMean() {
+		return mean;
+	}
+
+	double getSigma() {
+		return (n > 1) ? Math.sqrt(m2 / (n - 1)) : 0;
+	}
+}
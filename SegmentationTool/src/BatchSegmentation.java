@@ -0,0 +1,223 @@
+import java.awt.Rectangle;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import ij.ImagePlus;
+import ij.io.FileSaver;
+import ij.io.Opener;
+import ij.process.ByteProcessor;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// segmentation without the dialog: every 16 bit image of a directory is
+// segmented with the same SegmentationProtocol (seeds, thresholds,
+// neighborhood, morphology) and its label map is written as an 8 bit TIFF.
+// the studies are processed in parallel, one per core. no AWT/Swing
+// component is created, so this runs on headless machines:
+//
+// java -Djava.awt.headless=true -cp ij.jar:plugins BatchSegmentation
+// protocol.txt input_dir output_dir [-threads n]
+public class BatchSegmentation {
+
+	private final SegmentationProtocol protocol;
+	private final File outputDir;
+
+	public BatchSegmentation(SegmentationProtocol protocol, File outputDir) {
+		this.protocol = protocol;
+		this.outputDir = outputDir;
+	}
+
+	// grow a region from every seed, apply the morphology steps to it and
+	// save it into the returned label map, seed after seed
+	public static byte[] segment(short[] pixels, int width, int height,
+			SegmentationProtocol protocol, List<SegmentationProtocol.Seed> seeds) {
+
+		byte[] labels = new byte[width * height];
+		RegionGrowing grower = new RegionGrowing(width, height, pixels,
+				labels, null);
+		grower.useThresholdRange = protocol.useThresholdRange;
+		grower.min_threshold = protocol.min_threshold;
+		grower.max_threshold = protocol.max_threshold;
+		grower.neighSize = protocol.neighSize;
+		grower.engine = protocol.engine;
+		grower.stopAtOtherSegmentedRegions = protocol.stopAtOtherSegmentedRegions;
+		grower.useGradient = protocol.useGradient;
+		grower.gradientThreshold = protocol.gradientThreshold;
+		grower.useAdaptive = protocol.useAdaptive;
+		grower.adaptiveSigma = protocol.adaptiveSigma;
+
+		SelectionMask grown = new SelectionMask(width, height);
+		for (SegmentationProtocol.Seed seed : seeds) {
+			if (seed.x < 0 || seed.x >= width || seed.y < 0
+					|| seed.y >= height)
+				throw new IllegalArgumentException("seed (" + seed.x + ","
+						+ seed.y + ") lies outside of the image");
+
+			grown.clear();
+			grower.grow(PixelInfo.createFromXY(seed.x, seed.y, width, height),
+					grown);
+			SelectionMask selection = grown;
+
+			for (SegmentationProtocol.Step step : protocol.steps) {
+				switch (step.operation) {
+				case SegmentationProtocol.ERODE:
+					selection = new ErosionDilatation(selection,
+							step.kernelSize, width, height, false)
+							.getFinalSelection();
+					break;
+				case SegmentationProtocol.DILATE:
+					selection = new ErosionDilatation(selection,
+							step.kernelSize, width, height, true)
+							.getFinalSelection();
+					break;
+				case SegmentationProtocol.OPEN:
+					selection = Morphology.open(selection, step.kernelSize);
+					break;
+				case SegmentationProtocol.CLOSE:
+					selection = Morphology.close(selection, step.kernelSize);
+					break;
+				}
+			}
+
+			final byte label = (byte) seed.label;
+			Rectangle b = selection.getBounds();
+			if (b == null)
+				continue;
+			for (int y = b.y; y < b.y + b.height; y++) {
+				for (int x = selection.nextSetBit(y, b.x); x >= 0; x = selection
+						.nextSetBit(y, x + 1))
+					labels[x + y * width] = label;
+			}
+		}
+		return labels;
+	}
+
+	// segment one image file and write its label map, returns a summary
+	public String process(File file) throws IOException {
+		ImagePlus imp = new Opener().openImage(file.getPath());
+		if (imp == null)
+			throw new IOException("could not open " + file);
+		if (imp.getBitDepth() != 16)
+			throw new IOException(file + " is no 16 bit image");
+
+		final int width = imp.getWidth();
+		final int height = imp.getHeight();
+		List<SegmentationProtocol.Seed> seeds = protocol.getSeeds(file
+				.getName());
+		long startTime = System.currentTimeMillis();
+		byte[] labels = segment((short[]) imp.getProcessor().getPixels(),
+				width, height, protocol, seeds);
+		long totalTime = System.currentTimeMillis() - startTime;
+
+		File output = new File(outputDir, labelFileName(file.getName()));
+		ImagePlus labelImage = new ImagePlus(output.getName(),
+				new ByteProcessor(width, height, labels));
+		if (!new FileSaver(labelImage).saveAsTiff(output.getPath()))
+			throw new IOException("could not write " + output);
+
+		int labeled = 0;
+		for (byte l : labels) {
+			if (l != 0)
+				labeled++;
+		}
+		return file.getName() + ": " + seeds.size() + " seeds, " + labeled
+				+ " labeled pixels in " + totalTime + " ms";
+	}
+
+	static String labelFileName(String imageName) {
+		int dot = imageName.lastIndexOf('.');
+		String base = (dot > 0) ? imageName.substring(0, dot) : imageName;
+		return base + "_labels.tif";
+	}
+
+	// process all files of a directory with the given number of threads.
+	// returns the number of studies that failed.
+	public int processDirectory(File inputDir, int threads) {
+		File[] files = inputDir.listFiles();
+		if (files == null) {
+			System.err.println("cannot list " + inputDir);
+			return 1;
+		}
+		Arrays.sort(files);
+
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		List<File> studies = new ArrayList<File>();
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (final File file : files) {
+			if (!file.isFile() || file.getName().startsWith("."))
+				continue;
+			studies.add(file);
+			results.add(executor.submit(new Callable<String>() {
+				public String call() throws Exception {
+					return process(file);
+				}
+			}));
+		}
+		executor.shutdown();
+
+		// report in file order, as the studies finish
+		int failed = 0;
+		for (int i = 0; i < results.size(); i++) {
+			try {
+				System.out.println(results.get(i).get());
+			} catch (ExecutionException e) {
+				failed++;
+				System.err.println(studies.get(i).getName() + ": failed, "
+						+ e.getCause().getMessage());
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				executor.shutdownNow();
+				return failed + results.size() - i;
+			}
+		}
+		return failed;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int threads = Runtime.getRuntime().availableProcessors();
+		List<String> files = new ArrayList<String>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-threads") && i + 1 < args.length) {
+				threads = Math.max(1, Integer.parseInt(args[++i]));
+			} else {
+				files.add(args[i]);
+			}
+		}
+		if (files.size() != 3) {
+			System.err.println("usage: BatchSegmentation protocol input_dir "
+					+ "output_dir [-threads n]");
+			System.exit(2);
+		}
+
+		SegmentationProtocol protocol;
+		try {
+			protocol = SegmentationProtocol.read(new File(files.get(0)));
+		} catch (IOException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+			return;
+		}
+		File outputDir = new File(files.get(2));
+		if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+			System.err.println("cannot create " + outputDir);
+			System.exit(2);
+		}
+
+		int failed = new BatchSegmentation(protocol, outputDir)
+				.processDirectory(new File(files.get(1)), threads);
+		System.exit(failed == 0 ? 0 : 1);
+	}
+}
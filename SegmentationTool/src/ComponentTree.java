@@ -0,0 +1,249 @@
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// component tree (max-tree) of the image for one fixed threshold: built
+// once, it answers "which region does growing from this seed select" for
+// any value of the other threshold in time proportional to the region.
+// a max-tree over the pixels with value <= max_threshold answers for every
+// min_threshold (the regions are its nodes, the lower the threshold the
+// closer to the root); a min-tree over the pixels >= min_threshold
+// (max-tree of the inverted values) answers for every max_threshold.
+// the pixels are laid out in tree preorder, so that the pixels of every
+// node are one contiguous range.
+// building is a counting sort plus union-find (Berger et al.), O(n) for 16
+// bit values; the tree keeps four ints per pixel.
+class ComponentTree {
+
+	// which threshold is fixed, and its value
+	final boolean minTree;
+	final int bound;
+
+	// parameters of the fillability test the tree was built for
+	final int neighSize;
+	final boolean stopAtLabels;
+
+	// largest gradient magnitude in the tree, -1 if the gradient is not used
+	final int maxGradient;
+
+	private final int width, height;
+	private final short[] pixels;
+
+	// parent node of every pixel, -1 for pixels outside the tree (beyond
+	// the bound or labeled). after building, a pixel's parent has a lower
+	// key unless it is the canonical pixel of the pixel's node.
+	private final int[] parent;
+
+	// range [start, start + size) of every node's pixels in layout
+	private final int[] start;
+	private final int[] size;
+	private final int[] layout;
+
+	private ComponentTree(boolean minTree, int bound, int neighSize,
+			boolean stopAtLabels, int maxGradient, int width, int height,
+			short[] pixels, int numPixels) {
+		this.minTree = minTree;
+		this.bound = bound;
+		this.neighSize = neighSize;
+		this.stopAtLabels = stopAtLabels;
+		this.maxGradient = maxGradient;
+		this.width = width;
+		this.height = height;
+		this.pixels = pixels;
+		this.parent = new int[width * height];
+		this.start = new int[width * height];
+		this.size = new int[width * height];
+		this.layout = new int[numPixels];
+	}
+
+	// max-tree of the pixels <= maxThreshold (minTree false) or min-tree of
+	// the pixels >= minThreshold (minTree true). with stopAtLabels, labeled
+	// pixels are left out, with maxGradient >= 0 pixels on stronger edges.
+	static ComponentTree build(boolean minTree, int bound,
+			PixelNeighborhoodTable neighborhood, boolean stopAtLabels,
+			int maxGradient, int width, int height, short[] pixels,
+			byte[] labels, short[] gradients) {
+		final int n = width * height;
+
+		// counting sort of the pixels in the tree by decreasing key
+		final int[] first = new int[65537];
+		int numPixels = 0;
+		for (int p = 0; p < n; p++) {
+			if (inTree(minTree, bound, stopAtLabels, maxGradient, pixels,
+					labels, gradients, p)) {
+				first[key(minTree, pixels[p])]++;
+				numPixels++;
+			}
+		}
+		int pos = 0;
+		for (int k = 65535; k >= 0; k--) {
+			int c = first[k];
+			first[k] = pos;
+			pos += c;
+		}
+		final int[] order = new int[numPixels];
+		for (int p = 0; p < n; p++) {
+			if (inTree(minTree, bound, stopAtLabels, maxGradient, pixels,
+					labels, gradients, p))
+				order[first[key(minTree, pixels[p])]++] = p;
+		}
+
+		ComponentTree tree = new ComponentTree(minTree, bound,
+				neighborhood.numNeighbors(), stopAtLabels, maxGradient, width,
+				height, pixels, numPixels);
+		tree.link(order, neighborhood);
+		tree.layOut(order);
+		return tree;
+	}
+
+	private static boolean inTree(boolean minTree, int bound,
+			boolean stopAtLabels, int maxGradient, short[] pixels,
+			byte[] labels, short[] gradients, int p) {
+		int v = pixels[p] & 0xffff;
+		if (minTree ? v < bound : v > bound)
+			return false;
+		if (maxGradient >= 0 && (gradients[p] & 0xffff) > maxGradient)
+			return false;
+		return !(stopAtLabels && labels[p] != 0);
+	}
+
+	// the value the tree is ordered by
+	private static int key(boolean minTree, short value) {
+		return minTree ? 0xffff - (value & 0xffff) : value & 0xffff;
+	}
+
+	private int key(int p) {
+		return key(minTree, pixels[p]);
+	}
+
+	// the key that min_threshold (max-tree) or max_threshold (min-tree)
+	// corresponds to: pixels with key >= level are within the thresholds
+	int level(int minThreshold, int maxThreshold) {
+		return minTree ? 0xffff - maxThreshold : minThreshold;
+	}
+
+	// union-find over the pixels in decreasing key order: every pixel
+	// becomes the parent of the regions of its already processed neighbors.
+	// the union-find structure is balanced by rank, repr is the topmost
+	// pixel of each set.
+	private void link(int[] order, PixelNeighborhoodTable neighborhood) {
+		Arrays.fill(parent, -1);
+		final int[] zpar = start;
+		Arrays.fill(zpar, -1);
+		final int[] repr = size;
+		final byte[] rank = new byte[width * height];
+		final int[] offsets = neighborhood.offsets;
+
+		for (int i = 0; i < order.length; i++) {
+			final int p = order[i];
+			parent[p] = p;
+			zpar[p] = p;
+			repr[p] = p;
+			int zp = p;
+			final int x = p % width;
+			final int y = p / width;
+			final boolean interior = neighborhood.isInterior(x, y);
+			for (int j = 0; j < offsets.length; j++) {
+				if (!interior && !neighborhood.isValidNeighbor(x, y, j))
+					continue;
+				final int q = p + offsets[j];
+				if (zpar[q] < 0)
+					continue;
+				int zq = findRoot(zpar, q);
+				if (zq == zp)
+					continue;
+				parent[repr[zq]] = p;
+				if (rank[zp] < rank[zq]) {
+					int t = zp;
+					zp = zq;
+					zq = t;
+				}
+				zpar[zq] = zp;
+				repr[zp] = p;
+				if (rank[zp] == rank[zq])
+					rank[zp]++;
+			}
+		}
+
+		// every pixel points to the canonical pixel of its node or of the
+		// parent node; parents come later in order
+		for (int i = order.length - 1; i >= 0; i--) {
+			final int p = order[i];
+			final int q = parent[p];
+			if (key(parent[q]) == key(q))
+				parent[p] = parent[q];
+		}
+	}
+
+	private static int findRoot(int[] zpar, int p) {
+		int r = p;
+		while (zpar[r] != r)
+			r = zpar[r];
+		while (zpar[p] != r) {
+			int next = zpar[p];
+			zpar[p] = r;
+			p = next;
+		}
+		return r;
+	}
+
+	// subtree sizes (children come before their parents in order), then
+	// preorder positions (parents before their children)
+	private void layOut(int[] order) {
+		for (int i = 0; i < order.length; i++)
+			size[order[i]] = 1;
+		for (int i = 0; i < order.length; i++) {
+			final int p = order[i];
+			if (parent[p] != p)
+				size[parent[p]] += size[p];
+		}
+
+		// next free position within each node's range
+		final int[] cursor = new int[width * height];
+		int next = 0;
+		for (int i = order.length - 1; i >= 0; i--) {
+			final int p = order[i];
+			final int q = parent[p];
+			if (q == p) {
+				start[p] = next;
+				next += size[p];
+			} else {
+				start[p] = cursor[q];
+				cursor[q] += size[p];
+			}
+			layout[start[p]] = p;
+			cursor[p] = start[p] + 1;
+		}
+	}
+
+	// node of the region containing pixel p at the given level, -1 if p is
+	// not within the thresholds
+	int componentOf(int p, int level) {
+		if (parent[p] < 0 || key(p) < level)
+			return -1;
+		int c = p;
+		while (parent[c] != c && key(parent[c]) >= level)
+			c = parent[c];
+		return c;
+	}
+
+	// number of pixels of a node's region
+	int getSize(int node) {
+		return size[node];
+	}
+
+	// set the pixels of a node's region in selection
+	void select(int node, SelectionMask selection) {
+		for (int i = start[node]; i < start[node] + size[node]; i++) {
+			final int p = layout[i];
+			selection.set(p % width, p / width);
+		}
+	}
+
+	long memoryBytes() {
+		return 4L * (parent.length + start.length + size.length + layout.length);
+	}
+}
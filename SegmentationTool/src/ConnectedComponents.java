@@ -0,0 +1,306 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// all connected components of the pixels meeting the grower's criteria at
+// once (threshold range, gradient, labels; 4 or 8 neighbors), as an image
+// of component ids (0 = none, 1 ... count, in raster order of their first
+// pixel) and a table of size, centroid and bounding box per component.
+// two pass labeling with union-find:
+// 1. every fillable pixel takes the provisional label of an already
+// visited neighbor (left, above, and for 8 neighbors above left/right) and
+// the labels of the other ones are united with it. a pixel without such a
+// neighbor starts a new label, its own index + 1. roots are always linked
+// to the smaller label, so a label's parent is never larger than itself.
+// 2. one pass over the labels in increasing order resolves every label to
+// the final id of its root, a second pass over the pixels replaces the
+// provisional labels by these ids.
+// for large images, the pixel passes run on strips of rows in parallel:
+// labels of different strips never meet in pass 1, the rows at the strip
+// borders are united afterwards on the calling thread.
+class ConnectedComponents {
+
+	// images smaller than this are labeled on the calling thread
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric componentsTime = SegmentationMetrics
+			.timer("components.time");
+
+	final int width, height;
+
+	// component id per pixel
+	private final int[] ids;
+	private final int count;
+
+	// statistics per component id (index 0 unused)
+	private final int[] size;
+	private final long[] sumX, sumY;
+	private final int[] minX, minY, maxX, maxY;
+
+	private ConnectedComponents(int width, int height, int[] ids, int count) {
+		this.width = width;
+		this.height = height;
+		this.ids = ids;
+		this.count = count;
+		this.size = new int[count + 1];
+		this.sumX = new long[count + 1];
+		this.sumY = new long[count + 1];
+		this.minX = new int[count + 1];
+		this.minY = new int[count + 1];
+		this.maxX = new int[count + 1];
+		this.maxY = new int[count + 1];
+		Arrays.fill(minX, Integer.MAX_VALUE);
+		Arrays.fill(minY, Integer.MAX_VALUE);
+		for (int y = 0, idx = 0; y < height; y++) {
+			for (int x = 0; x < width; x++, idx++) {
+				final int c = ids[idx];
+				if (c == 0)
+					continue;
+				size[c]++;
+				sumX[c] += x;
+				sumY[c] += y;
+				minX[c] = Math.min(minX[c], x);
+				maxX[c] = Math.max(maxX[c], x);
+				minY[c] = Math.min(minY[c], y);
+				maxY[c] = Math.max(maxY[c], y);
+			}
+		}
+	}
+
+	// label the image of a grower, in parallel strips if it is large
+	static ConnectedComponents of(RegionGrowing grower) {
+		int strips = 1;
+		if (grower.width * grower.height >= PARALLEL_THRESHOLD)
+			strips = Math.min(grower.height,
+					ParallelRegionGrowing.pool.getParallelism() * 4);
+		return of(grower, strips);
+	}
+
+	// label the image of a grower in the given number of strips (1:
+	// sequential)
+	static ConnectedComponents of(final RegionGrowing grower, int strips) {
+		final long startTime = componentsTime.start();
+		final int width = grower.width, height = grower.height;
+		final boolean diagonal = (grower.neighSize == 8);
+		final int[] ids = new int[width * height];
+		final int[] parent = new int[width * height + 1];
+
+		strips = Math.max(1, Math.min(strips, height));
+		final int[] y0 = new int[strips + 1];
+		for (int s = 0; s <= strips; s++)
+			y0[s] = (int) ((long) height * s / strips);
+
+		// pass 1 within the strips
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int s = 0; s < strips; s++) {
+			final int from = y0[s], to = y0[s + 1];
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					labelRows(grower, ids, parent, from, to, diagonal);
+					return 0;
+				}
+			});
+		}
+		runStrips(tasks);
+
+		// unite across the strip borders
+		for (int s = 1; s < strips; s++) {
+			final int row = y0[s] * width;
+			for (int x = 0; x < width; x++) {
+				if (ids[row + x] != 0)
+					linkAbove(ids, parent, row + x, x, width, diagonal);
+			}
+		}
+
+		// resolve the labels to final ids, stored negated in place of the
+		// parent: the parent of a label is smaller, i.e. already resolved
+		int count = 0;
+		for (int l = 1; l < parent.length; l++) {
+			final int p = parent[l];
+			if (p == 0)
+				continue;
+			parent[l] = (p == l) ? -(++count) : parent[p];
+		}
+
+		// pass 2: provisional labels to ids
+		tasks.clear();
+		for (int s = 0; s < strips; s++) {
+			final int from = y0[s] * width, to = y0[s + 1] * width;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					for (int i = from; i < to; i++) {
+						if (ids[i] != 0)
+							ids[i] = -parent[ids[i]];
+					}
+					return 0;
+				}
+			});
+		}
+		runStrips(tasks);
+
+		ConnectedComponents components = new ConnectedComponents(width,
+				height, ids, count);
+		componentsTime.stop(startTime);
+		return components;
+	}
+
+	private static void runStrips(List<Callable<Integer>> tasks) {
+		if (tasks.size() == 1) {
+			try {
+				tasks.get(0).call();
+			} catch (Exception e) {
+				throw new RuntimeException(e);
+			}
+		} else {
+			ParallelRegionGrowing.runAll(tasks);
+		}
+	}
+
+	// pass 1 for rows y0 <= y < y1. the neighbors are tested in the order
+	// of Wu et al.: neighbors that touch each other are already united, so
+	// at most one union is needed per pixel.
+	private static void labelRows(RegionGrowing grower, int[] ids,
+			int[] parent, int y0, int y1, boolean diagonal) {
+		final int width = grower.width;
+		for (int y = y0; y < y1; y++) {
+			final boolean first = (y == y0);
+			for (int x = 0, idx = y * width; x < width; x++, idx++) {
+				if (!grower.isFillable(idx))
+					continue;
+				final int left = (x > 0) ? ids[idx - 1] : 0;
+				final int up = first ? 0 : ids[idx - width];
+				int label;
+				if (diagonal) {
+					final int upLeft = (first || x == 0) ? 0
+							: ids[idx - width - 1];
+					final int upRight = (first || x == width - 1) ? 0
+							: ids[idx - width + 1];
+					if (up != 0) {
+						label = up;
+					} else if (upRight != 0) {
+						label = upRight;
+						if (upLeft != 0)
+							union(parent, upRight, upLeft);
+						else if (left != 0)
+							union(parent, upRight, left);
+					} else if (upLeft != 0) {
+						label = upLeft;
+					} else {
+						label = left;
+					}
+				} else {
+					label = (up != 0) ? up : left;
+					if (up != 0 && left != 0 && up != left)
+						union(parent, up, left);
+				}
+				if (label == 0) {
+					label = idx + 1;
+					parent[label] = label;
+				}
+				ids[idx] = label;
+			}
+		}
+	}
+
+	// unite the label of a pixel with those of its neighbors in the row
+	// above
+	private static void linkAbove(int[] ids, int[] parent, int idx, int x,
+			int width, boolean diagonal) {
+		final int up = idx - width;
+		if (ids[up] != 0)
+			union(parent, ids[idx], ids[up]);
+		if (diagonal) {
+			if (x > 0 && ids[up - 1] != 0)
+				union(parent, ids[idx], ids[up - 1]);
+			if (x < width - 1 && ids[up + 1] != 0)
+				union(parent, ids[idx], ids[up + 1]);
+		}
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b)
+			parent[b] = a;
+		else if (b < a)
+			parent[a] = b;
+	}
+
+	// root of a label, halving the path on the way
+	private static int find(int[] parent, int l) {
+		while (parent[l] != l) {
+			parent[l] = parent[parent[l]];
+			l = parent[l];
+		}
+		return l;
+	}
+
+	// number of components
+	int getCount() {
+		return count;
+	}
+
+	// component id of a pixel, 0 if it belongs to none
+	int getId(int idx) {
+		return ids[idx];
+	}
+
+	int getSize(int id) {
+		return size[id];
+	}
+
+	double getCentroidX(int id) {
+		return (double) sumX[id] / size[id];
+	}
+
+	double getCentroidY(int id) {
+		return (double) sumY[id] / size[id];
+	}
+
+	Rectangle getBounds(int id) {
+		return new Rectangle(minX[id], minY[id], maxX[id] - minX[id] + 1,
+				maxY[id] - minY[id] + 1);
+	}
+
+	// ids of the n largest components, largest first (equal sizes in id
+	// order)
+	int[] largest(int n) {
+		// size in the upper half, so that sorting orders by size
+		long[] keys = new long[count];
+		for (int id = 1; id <= count; id++)
+			keys[id - 1] = ((long) size[id] << 32) | (count - id);
+		Arrays.sort(keys);
+		n = Math.max(0, Math.min(n, count));
+		int[] result = new int[n];
+		for (int i = 0; i < n; i++)
+			result[i] = count - (int) keys[count - 1 - i];
+		return result;
+	}
+
+	// set the pixels of a component in selection
+	void select(int id, SelectionMask selection) {
+		for (int y = minY[id]; y <= maxY[id]; y++) {
+			final int row = y * width;
+			int x = minX[id];
+			while (x <= maxX[id]) {
+				if (ids[row + x] != id) {
+					x++;
+					continue;
+				}
+				int end = x + 1;
+				while (end <= maxX[id] && ids[row + end] == id)
+					end++;
+				selection.setRange(y, x, end);
+				x = end;
+			}
+		}
+	}
+}
@@ -0,0 +1,343 @@
+import java.awt.Rectangle;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// multi-level undo/redo for the selection and the labels. instead of
+// copies of the whole state, every step stores the XOR of the state before
+// and after the edit within the changed region: selection words and label
+// bytes that did not change are zero, so the XOR is run-length encoded
+// (runs of zeros, literal bytes) and then deflated if that saves more.
+// since XOR is its own inverse, the same delta undoes and redoes a step.
+// to compute the delta, the history keeps one shadow copy of the state
+// after the last step. the deltas share a memory budget, the oldest steps
+// are dropped when it is exceeded.
+class EditHistory {
+
+	// default budget for all stored steps, in megabytes
+	static final long DEFAULT_BUDGET_MB = Long.getLong(
+			"segmentation.undo.budget", 64);
+
+	// one undoable step
+	private static final class Delta {
+		final Rectangle region;
+		final byte[] data;
+		final int encodedLength;
+		final boolean deflated;
+
+		Delta(Rectangle region, byte[] data, int encodedLength,
+				boolean deflated) {
+			this.region = region;
+			this.data = data;
+			this.encodedLength = encodedLength;
+			this.deflated = deflated;
+		}
+
+		long size() {
+			return data.length + 64;
+		}
+	}
+
+	private final int width, height, wordsPerRow;
+
+	// state after the last committed step
+	private final SelectionMask shadowSelection;
+	private final byte[] shadowLabels;
+
+	private final ArrayDeque<Delta> undoSteps = new ArrayDeque<Delta>();
+	private final ArrayDeque<Delta> redoSteps = new ArrayDeque<Delta>();
+	private long usedBytes = 0;
+	private long budgetBytes = DEFAULT_BUDGET_MB << 20;
+	private boolean compress = true;
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric deltaBytes = SegmentationMetrics
+			.histogram("undo.deltaBytes");
+
+	EditHistory(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.shadowSelection = new SelectionMask(width, height);
+		this.wordsPerRow = shadowSelection.wordsPerRow;
+		this.shadowLabels = new byte[width * height];
+	}
+
+	// forget all steps, the given state becomes the starting point (e.g.
+	// after loading a session)
+	void reset(SelectionMask selection, byte[] labels) {
+		shadowSelection.copyFrom(selection);
+		System.arraycopy(labels, 0, shadowLabels, 0, labels.length);
+		undoSteps.clear();
+		redoSteps.clear();
+		usedBytes = 0;
+	}
+
+	void setBudgetBytes(long budgetBytes) {
+		this.budgetBytes = budgetBytes;
+		evict();
+	}
+
+	void setCompress(boolean compress) {
+		this.compress = compress;
+	}
+
+	boolean canUndo() {
+		return !undoSteps.isEmpty();
+	}
+
+	boolean canRedo() {
+		return !redoSteps.isEmpty();
+	}
+
+	// record the changes of selection and labels within region as one step
+	void commit(SelectionMask selection, byte[] labels, Rectangle region) {
+		Rectangle r = region.intersection(new Rectangle(0, 0, width, height));
+		if (r.isEmpty())
+			return;
+
+		// XOR against the shadow, which is brought up to date on the way
+		ZeroRunEncoder out = new ZeroRunEncoder();
+		final long[] words = selection.words;
+		final long[] shadowWords = shadowSelection.words;
+		final int w0 = r.x >>> 6, w1 = (r.x + r.width - 1) >>> 6;
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int i = y * wordsPerRow + w0; i <= y * wordsPerRow + w1; i++) {
+				out.putLong(words[i] ^ shadowWords[i]);
+				shadowWords[i] = words[i];
+			}
+		}
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int i = y * width + r.x; i < y * width + r.x + r.width; i++) {
+				out.put((byte) (labels[i] ^ shadowLabels[i]));
+				shadowLabels[i] = labels[i];
+			}
+		}
+		if (!out.hasNonZero())
+			return;
+
+		byte[] encoded = out.toByteArray();
+		Delta delta = new Delta(r, encoded, encoded.length, false);
+		if (compress) {
+			byte[] deflated = deflate(encoded);
+			if (deflated.length < encoded.length)
+				delta = new Delta(r, deflated, encoded.length, true);
+		}
+		deltaBytes.record(delta.data.length);
+
+		// a new step makes the undone steps unreachable
+		for (Delta d : redoSteps)
+			usedBytes -= d.size();
+		redoSteps.clear();
+
+		undoSteps.addLast(delta);
+		usedBytes += delta.size();
+		evict();
+	}
+
+	// undo the last step on selection and labels. returns the region that
+	// changed (null if there was nothing to undo); touched receives the
+	// labels that were added or removed there.
+	Rectangle undo(SelectionMask selection, byte[] labels, boolean[] touched) {
+		Delta d = undoSteps.pollLast();
+		if (d == null)
+			return null;
+		apply(d, selection, labels, touched);
+		redoSteps.addLast(d);
+		return d.region;
+	}
+
+	// redo the last undone step, as undo()
+	Rectangle redo(SelectionMask selection, byte[] labels, boolean[] touched) {
+		Delta d = redoSteps.pollLast();
+		if (d == null)
+			return null;
+		apply(d, selection, labels, touched);
+		undoSteps.addLast(d);
+		return d.region;
+	}
+
+	// XOR the delta into the state and into the shadow
+	private void apply(Delta d, SelectionMask selection, byte[] labels,
+			boolean[] touched) {
+		byte[] encoded = d.deflated ? inflate(d.data, d.encodedLength)
+				: d.data;
+		ZeroRunDecoder in = new ZeroRunDecoder(encoded);
+		final Rectangle r = d.region;
+		final long[] words = selection.words;
+		final long[] shadowWords = shadowSelection.words;
+		final int w0 = r.x >>> 6, w1 = (r.x + r.width - 1) >>> 6;
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int i = y * wordsPerRow + w0; i <= y * wordsPerRow + w1; i++) {
+				long x = in.getLong();
+				words[i] ^= x;
+				shadowWords[i] ^= x;
+			}
+		}
+		selection.include(r);
+		for (int y = r.y; y < r.y + r.height; y++) {
+			for (int i = y * width + r.x; i < y * width + r.x + r.width; i++) {
+				byte x = in.get();
+				if (x != 0) {
+					touched[labels[i] & 0xff] = true;
+					labels[i] ^= x;
+					shadowLabels[i] ^= x;
+					touched[labels[i] & 0xff] = true;
+				}
+			}
+		}
+	}
+
+	// drop the oldest steps until the budget is met; undone steps go last
+	private void evict() {
+		while (usedBytes > budgetBytes && !undoSteps.isEmpty())
+			usedBytes -= undoSteps.pollFirst().size();
+		while (usedBytes > budgetBytes && !redoSteps.isEmpty())
+			usedBytes -= redoSteps.pollFirst().size();
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] out = new byte[Math.max(64, data.length / 4)];
+		int n = 0;
+		while (!deflater.finished()) {
+			if (n == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		deflater.end();
+		return Arrays.copyOf(out, n);
+	}
+
+	private static byte[] inflate(byte[] data, int length) {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		byte[] out = new byte[length];
+		try {
+			int n = 0;
+			while (n < length && !inflater.finished())
+				n += inflater.inflate(out, n, length - n);
+		} catch (DataFormatException e) {
+			throw new IllegalStateException("corrupt undo step", e);
+		} finally {
+			inflater.end();
+		}
+		return out;
+	}
+
+	// byte stream as pairs of (number of zeros, number of literals) followed
+	// by the literals, counts as variable length integers
+	private static final class ZeroRunEncoder {
+		private byte[] buf = new byte[256];
+		private int size = 0;
+		private int zeros = 0;
+		private byte[] literals = new byte[256];
+		private int numLiterals = 0;
+		private boolean nonZero = false;
+
+		void putLong(long v) {
+			for (int i = 0; i < 8; i++, v >>>= 8)
+				put((byte) v);
+		}
+
+		void put(byte b) {
+			if (b == 0) {
+				if (numLiterals > 0)
+					flush();
+				zeros++;
+			} else {
+				nonZero = true;
+				if (numLiterals == literals.length)
+					literals = Arrays.copyOf(literals, literals.length * 2);
+				literals[numLiterals++] = b;
+			}
+		}
+
+		boolean hasNonZero() {
+			return nonZero;
+		}
+
+		byte[] toByteArray() {
+			flush();
+			return Arrays.copyOf(buf, size);
+		}
+
+		private void flush() {
+			if (zeros == 0 && numLiterals == 0)
+				return;
+			putCount(zeros);
+			putCount(numLiterals);
+			ensure(numLiterals);
+			System.arraycopy(literals, 0, buf, size, numLiterals);
+			size += numLiterals;
+			zeros = 0;
+			numLiterals = 0;
+		}
+
+		private void putCount(int n) {
+			ensure(5);
+			while ((n & ~0x7f) != 0) {
+				buf[size++] = (byte) ((n & 0x7f) | 0x80);
+				n >>>= 7;
+			}
+			buf[size++] = (byte) n;
+		}
+
+		private void ensure(int n) {
+			if (size + n > buf.length)
+				buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+		}
+	}
+
+	private static final class ZeroRunDecoder {
+		private final byte[] buf;
+		private int pos = 0;
+		private int zeros = 0, literals = 0;
+
+		ZeroRunDecoder(byte[] buf) {
+			this.buf = buf;
+		}
+
+		long getLong() {
+			long v = 0;
+			for (int i = 0; i < 8; i++)
+				v |= (get() & 0xffL) << (8 * i);
+			return v;
+		}
+
+		byte get() {
+			while (zeros == 0 && literals == 0) {
+				// past the end, only zeros are left
+				if (pos >= buf.length)
+					return 0;
+				zeros = getCount();
+				literals = getCount();
+			}
+			if (zeros > 0) {
+				zeros--;
+				return 0;
+			}
+			literals--;
+			return buf[pos++];
+		}
+
+		private int getCount() {
+			int n = 0, shift = 0;
+			byte b;
+			do {
+				b = buf[pos++];
+				n |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return n;
+		}
+	}
+}
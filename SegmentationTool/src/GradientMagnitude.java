@@ -0,0 +1,119 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// Sobel gradient magnitude of a 16 bit image, computed once and then
+// looked up by the grower (criterion 2 of RegionGrowing). the magnitude is
+// scaled to pixel value units (a step of height h gives h) and saturated
+// at 65535, so it fits the same unsigned short range as the pixels.
+// strips of rows are computed in parallel on the shared pool. every row is
+// computed from three row offsets with the border columns handled apart,
+// so the inner loop has no bounds checks or branches and can be
+// vectorized by the JIT.
+class GradientMagnitude {
+
+	// images smaller than this are computed on the calling thread
+	private static final int PARALLEL_THRESHOLD = 1 << 18;
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric gradientTime = SegmentationMetrics
+			.timer("gradient.time");
+
+	private GradientMagnitude() {
+	}
+
+	static short[] compute(final short[] pixels, final int width,
+			final int height) {
+		final long startTime = gradientTime.start();
+		final short[] gradients = new short[width * height];
+
+		if (width * height < PARALLEL_THRESHOLD) {
+			computeRows(pixels, gradients, width, height, 0, height);
+		} else {
+			final int strips = Math.min(height,
+					ParallelRegionGrowing.pool.getParallelism() * 4);
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int s = 0; s < strips; s++) {
+				final int y0 = (int) ((long) height * s / strips);
+				final int y1 = (int) ((long) height * (s + 1) / strips);
+				tasks.add(new Callable<Integer>() {
+					public Integer call() {
+						computeRows(pixels, gradients, width, height, y0, y1);
+						return 0;
+					}
+				});
+			}
+			ParallelRegionGrowing.runAll(tasks);
+		}
+
+		gradientTime.stop(startTime);
+		return gradients;
+	}
+
+	// rows y0 <= y < y1; pixels outside the image repeat the border pixels
+	private static void computeRows(short[] pixels, short[] gradients,
+			int width, int height, int y0, int y1) {
+		for (int y = y0; y < y1; y++) {
+			final int above = Math.max(y - 1, 0) * width;
+			final int row = y * width;
+			final int below = Math.min(y + 1, height - 1) * width;
+
+			if (width == 1) {
+				gradients[row] = magnitude(0, 4 * (value(pixels, below) - value(
+						pixels, above)));
+				continue;
+			}
+
+			// left border column
+			gradients[row] = sobel(pixels, above, row, below, 0, 0, 1);
+
+			// interior columns
+			for (int x = 1; x < width - 1; x++) {
+				final int a0 = pixels[above + x - 1] & 0xffff;
+				final int a1 = pixels[above + x] & 0xffff;
+				final int a2 = pixels[above + x + 1] & 0xffff;
+				final int m0 = pixels[row + x - 1] & 0xffff;
+				final int m2 = pixels[row + x + 1] & 0xffff;
+				final int b0 = pixels[below + x - 1] & 0xffff;
+				final int b1 = pixels[below + x] & 0xffff;
+				final int b2 = pixels[below + x + 1] & 0xffff;
+				final int gx = (a2 + 2 * m2 + b2) - (a0 + 2 * m0 + b0);
+				final int gy = (b0 + 2 * b1 + b2) - (a0 + 2 * a1 + a2);
+				gradients[row + x] = magnitude(gx, gy);
+			}
+
+			// right border column
+			gradients[row + width - 1] = sobel(pixels, above, row, below,
+					width - 2, width - 1, width - 1);
+		}
+	}
+
+	// Sobel at the column between xl and xr (clamped columns at the border)
+	private static short sobel(short[] pixels, int above, int row, int below,
+			int xl, int x, int xr) {
+		final int gx = (value(pixels, above + xr) + 2
+				* value(pixels, row + xr) + value(pixels, below + xr))
+				- (value(pixels, above + xl) + 2 * value(pixels, row + xl) + value(
+						pixels, below + xl));
+		final int gy = (value(pixels, below + xl) + 2
+				* value(pixels, below + x) + value(pixels, below + xr))
+				- (value(pixels, above + xl) + 2 * value(pixels, above + x) + value(
+						pixels, above + xr));
+		return magnitude(gx, gy);
+	}
+
+	private static int value(short[] pixels, int idx) {
+		return pixels[idx] & 0xffff;
+	}
+
+	// euclidean length, divided by the Sobel gain of 4, saturated
+	private static short magnitude(int gx, int gy) {
+		final float m = (float) Math.sqrt((float) gx * gx + (float) gy * gy) * 0.25f;
+		return (short) Math.min((int) (m + 0.5f), 0xffff);
+	}
+}
@@ -0,0 +1,264 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// histogram with one bin per 16 bit value, built once per image (in
+// parallel strips for large images) and then queried instead of the
+// pixels: min/max, percentiles, the number of pixels within a value range
+// (from the cumulative counts, O(1)), mean and deviation, and threshold
+// suggestions by Otsu's method, all in O(bins) or less.
+class IntensityHistogram {
+
+	static final int BINS = 65536;
+
+	// images smaller than this are counted on the calling thread
+	private static final int PARALLEL_THRESHOLD = 1 << 20;
+
+	// bins used by multi-level Otsu, which is quadratic in the bins
+	private static final int COARSE_BINS = 256;
+
+	private final int[] counts;
+
+	// cumulative[v] = number of pixels with value < v
+	private final long[] cumulative = new long[BINS + 1];
+
+	private final long total;
+	private final int min, max;
+	private final int numValues;
+	private final double mean, stddev;
+
+	private IntensityHistogram(int[] counts) {
+		this.counts = counts;
+		double sum = 0, sumSq = 0;
+		int lo = -1, hi = -1, distinct = 0;
+		for (int v = 0; v < BINS; v++) {
+			int c = counts[v];
+			cumulative[v + 1] = cumulative[v] + c;
+			if (c != 0) {
+				if (lo < 0)
+					lo = v;
+				hi = v;
+				distinct++;
+				sum += (double) c * v;
+				sumSq += (double) c * v * v;
+			}
+		}
+		this.total = cumulative[BINS];
+		this.min = Math.max(lo, 0);
+		this.max = Math.max(hi, 0);
+		this.numValues = distinct;
+		this.mean = (total == 0) ? 0 : sum / total;
+		this.stddev = (total == 0) ? 0 : Math.sqrt(Math.max(0, sumSq / total
+				- mean * mean));
+	}
+
+	// histogram of all pixels of an image
+	static IntensityHistogram of(final short[] pixels) {
+		final int n = pixels.length;
+		if (n < PARALLEL_THRESHOLD)
+			return new IntensityHistogram(count(pixels, 0, n, new int[BINS]));
+
+		// every strip counts into its own bins, which are summed afterwards
+		final int strips = Math.max(2, Math.min(
+				ParallelRegionGrowing.pool.getParallelism(), n
+						/ (PARALLEL_THRESHOLD / 4)));
+		final int[][] partial = new int[strips][];
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int s = 0; s < strips; s++) {
+			final int strip = s;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					int from = (int) ((long) n * strip / strips);
+					int to = (int) ((long) n * (strip + 1) / strips);
+					partial[strip] = count(pixels, from, to, new int[BINS]);
+					return 0;
+				}
+			});
+		}
+		ParallelRegionGrowing.runAll(tasks);
+		int[] counts = partial[0];
+		for (int s = 1; s < strips; s++) {
+			for (int v = 0; v < BINS; v++)
+				counts[v] += partial[s][v];
+		}
+		return new IntensityHistogram(counts);
+	}
+
+	// histogram of the pixels of one label, from the label's runs
+	static IntensityHistogram of(short[] pixels, LabelMap labels, int label) {
+		final int[] counts = new int[BINS];
+		final int[] runs = labels.getRuns(label);
+		final int numRuns = labels.getNumRuns(label);
+		for (int i = 0; i < numRuns * 3; i += 3) {
+			int row = runs[i] * labels.width;
+			count(pixels, row + runs[i + 1], row + runs[i + 2], counts);
+		}
+		return new IntensityHistogram(counts);
+	}
+
+	private static int[] count(short[] pixels, int from, int to, int[] counts) {
+		for (int i = from; i < to; i++)
+			counts[pixels[i] & 0xffff]++;
+		return counts;
+	}
+
+	long getTotal() {
+		return total;
+	}
+
+	// smallest and largest value occurring (0 for an empty histogram)
+	int getMin() {
+		return min;
+	}
+
+	int getMax() {
+		return max;
+	}
+
+	double getMean() {
+		return mean;
+	}
+
+	double getStdDev() {
+		return stddev;
+	}
+
+	// number of different values occurring
+	int getNumValues() {
+		return numValues;
+	}
+
+	int getCount(int value) {
+		return counts[value];
+	}
+
+	// number of pixels with lo <= value <= hi
+	long countInRange(int lo, int hi) {
+		lo = Math.max(lo, 0);
+		hi = Math.min(hi, BINS - 1);
+		if (lo > hi)
+			return 0;
+		return cumulative[hi + 1] - cumulative[lo];
+	}
+
+	// smallest value with at least fraction (0..1) of the pixels at or
+	// below it
+	int percentile(double fraction) {
+		if (total == 0)
+			return 0;
+		long rank = Math.max(1, (long) Math.ceil(fraction * total));
+		// first v with cumulative[v + 1] >= rank
+		int lo = 0, hi = BINS - 1;
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (cumulative[mid + 1] >= rank) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+		}
+		return lo;
+	}
+
+	// Otsu's threshold: the value t maximizing the between-class variance of
+	// [min, t] and [t+1, max]
+	int otsu() {
+		double sumAll = 0;
+		for (int v = min; v <= max; v++)
+			sumAll += (double) counts[v] * v;
+		double sumBelow = 0;
+		long below = 0;
+		double best = -1;
+		int threshold = min;
+		for (int t = min; t < max; t++) {
+			below += counts[t];
+			sumBelow += (double) counts[t] * t;
+			long above = total - below;
+			if (below == 0 || above == 0)
+				continue;
+			double meanBelow = sumBelow / below;
+			double meanAbove = (sumAll - sumBelow) / above;
+			double d = meanBelow - meanAbove;
+			double between = (double) below * above * d * d;
+			if (between > best) {
+				best = between;
+				threshold = t;
+			}
+		}
+		return threshold;
+	}
+
+	// multi-level Otsu: classes - 1 thresholds maximizing the between-class
+	// variance, thresholds[i] being the last value of class i. works on
+	// COARSE_BINS bins between min and max (dynamic programming, quadratic
+	// in the bins), so thresholds are exact up to one coarse bin. always
+	// returns classes - 1 thresholds: if there are fewer bins than classes,
+	// the classes that do not fit stay empty above max.
+	int[] multiOtsu(int classes) {
+		final int range = max - min + 1;
+		final int bins = Math.min(COARSE_BINS, range);
+		final double binWidth = (double) range / bins;
+
+		// coarse counts and value sums, as prefix sums
+		double[] p = new double[bins + 1];
+		double[] s = new double[bins + 1];
+		for (int b = 0; b < bins; b++) {
+			int from = min + (int) Math.round(b * binWidth);
+			int to = min + (int) Math.round((b + 1) * binWidth);
+			double c = 0, sum = 0;
+			for (int v = from; v < to; v++) {
+				c += counts[v];
+				sum += (double) counts[v] * v;
+			}
+			p[b + 1] = p[b] + c;
+			s[b + 1] = s[b] + sum;
+		}
+
+		// best[k][b]: max of sum(sum^2/count) splitting bins [0, b) into k
+		// classes, last[k][b]: start of the last class
+		classes = Math.max(2, classes);
+		final int fitting = Math.min(classes, bins);
+		double[][] best = new double[fitting + 1][bins + 1];
+		int[][] last = new int[fitting + 1][bins + 1];
+		for (int b = 1; b <= bins; b++)
+			best[1][b] = classScore(p, s, 0, b);
+		for (int k = 2; k <= fitting; k++) {
+			for (int b = k; b <= bins; b++) {
+				best[k][b] = Double.NEGATIVE_INFINITY;
+				for (int a = k - 1; a < b; a++) {
+					double score = best[k - 1][a] + classScore(p, s, a, b);
+					if (score > best[k][b]) {
+						best[k][b] = score;
+						last[k][b] = a;
+					}
+				}
+			}
+		}
+
+		// walk back the class boundaries
+		int[] thresholds = new int[classes - 1];
+		Arrays.fill(thresholds, max);
+		int b = bins;
+		for (int k = fitting; k >= 2; k--) {
+			int a = last[k][b];
+			thresholds[k - 2] = min + (int) Math.round(a * binWidth) - 1;
+			b = a;
+		}
+		return thresholds;
+	}
+
+	// between-class variance contribution of coarse bins [a, b)
+	private static double classScore(double[] p, double[] s, int a, int b) {
+		double c = p[b] - p[a];
+		if (c == 0)
+			return 0;
+		double sum = s[b] - s[a];
+		return sum * sum / c;
+	}
+}
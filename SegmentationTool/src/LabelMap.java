@@ -0,0 +1,231 @@
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// per-pixel labels (0 = unlabeled, 1..255) of an image. the dense byte
+// array stays the primary store, since growing and rendering look labels
+// up by pixel index. next to it, every label keeps the list of its runs
+// (row, first x, end x) plus pixel count and bounding box, so that
+// clearing, selecting and saving a label cost time proportional to the
+// label's extent instead of the image size, and the statistics come for
+// free.
+// saving a label over pixels of other labels shrinks those labels without
+// touching their run lists: they are only marked stale and rebuilt from
+// the dense array within their old bounding box when next used.
+class LabelMap {
+
+	// label 0 is "no label"
+	static final int MAX_LABELS = 255;
+
+	final int width, height;
+
+	// dense labels, shared with RegionGrowing and OverlayRenderer
+	private final byte[] pixels;
+
+	// runs of every label as (y, x0, x1) triples, x1 exclusive, in row order
+	private final int[][] runs = new int[MAX_LABELS + 1][];
+	private final int[] numRuns = new int[MAX_LABELS + 1];
+
+	// statistics of every label; bounds are empty (minX > maxX) if count is 0
+	private final int[] count = new int[MAX_LABELS + 1];
+	private final int[] minX = new int[MAX_LABELS + 1];
+	private final int[] minY = new int[MAX_LABELS + 1];
+	private final int[] maxX = new int[MAX_LABELS + 1];
+	private final int[] maxY = new int[MAX_LABELS + 1];
+
+	// labels partly overwritten by another label, index needs a rebuild
+	private final boolean[] stale = new boolean[MAX_LABELS + 1];
+
+	LabelMap(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.pixels = new byte[width * height];
+		for (int l = 0; l <= MAX_LABELS; l++)
+			reset(l);
+	}
+
+	// the dense label array (read only for everyone else)
+	byte[] getPixels() {
+		return pixels;
+	}
+
+	int get(int idx) {
+		return pixels[idx] & 0xff;
+	}
+
+	// number of pixels carrying label
+	int getCount(int label) {
+		refresh(label);
+		return count[label];
+	}
+
+	// bounding box of label, null if it has no pixels
+	Rectangle getBounds(int label) {
+		refresh(label);
+		return bounds(label);
+	}
+
+	// runs of label as (y, x0, x1) triples (read only), see getNumRuns
+	int[] getRuns(int label) {
+		refresh(label);
+		return runs[label];
+	}
+
+	int getNumRuns(int label) {
+		refresh(label);
+		return numRuns[label];
+	}
+
+	// remove label from all its pixels, returns the region that changed
+	// (null if none)
+	Rectangle clear(int label) {
+		refresh(label);
+		Rectangle changed = bounds(label);
+		final int[] r = runs[label];
+		for (int i = 0; i < numRuns[label] * 3; i += 3) {
+			int row = r[i] * width;
+			Arrays.fill(pixels, row + r[i + 1], row + r[i + 2], (byte) 0);
+		}
+		reset(label);
+		return changed;
+	}
+
+	// the selected pixels become label, the previous pixels of label are
+	// cleared first. returns the region that changed (null if none).
+	Rectangle save(SelectionMask selection, int label) {
+		Rectangle changed = clear(label);
+		Rectangle b = selection.getBounds();
+		if (b == null)
+			return changed;
+
+		final byte value = (byte) label;
+		for (int y = b.y; y < b.y + b.height; y++) {
+			final int row = y * width;
+			int x = selection.nextSetBit(y, b.x);
+			while (x >= 0) {
+				int end = selection.nextClearBit(y, x);
+				for (int i = row + x; i < row + end; i++) {
+					int old = pixels[i] & 0xff;
+					if (old != 0)
+						stale[old] = true;
+					pixels[i] = value;
+				}
+				addRun(label, y, x, end);
+				x = selection.nextSetBit(y, end);
+			}
+		}
+		return (changed == null) ? b : changed.union(b);
+	}
+
+	// set the pixels of label in selection
+	void select(int label, SelectionMask selection) {
+		refresh(label);
+		final int[] r = runs[label];
+		for (int i = 0; i < numRuns[label] * 3; i += 3)
+			selection.setRange(r[i], r[i + 1], r[i + 2]);
+	}
+
+	// replace all labels (e.g. by a loaded session), the index of all
+	// labels is rebuilt in one pass
+	void load(byte[] labels) {
+		System.arraycopy(labels, 0, pixels, 0, pixels.length);
+		for (int l = 0; l <= MAX_LABELS; l++) {
+			reset(l);
+			stale[l] = false;
+		}
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			int x = 0;
+			while (x < width) {
+				final byte value = pixels[row + x];
+				int end = x + 1;
+				while (end < width && pixels[row + end] == value)
+					end++;
+				if (value != 0)
+					addRun(value & 0xff, y, x, end);
+				x = end;
+			}
+		}
+	}
+
+	// the dense array was changed directly within region (undo): the
+	// touched labels are rebuilt on next use, within their bounds extended
+	// by region
+	void changed(Rectangle region, boolean[] touched) {
+		for (int l = 1; l <= MAX_LABELS; l++) {
+			if (!touched[l])
+				continue;
+			minX[l] = Math.min(minX[l], region.x);
+			minY[l] = Math.min(minY[l], region.y);
+			maxX[l] = Math.max(maxX[l], region.x + region.width - 1);
+			maxY[l] = Math.max(maxY[l], region.y + region.height - 1);
+			stale[l] = true;
+		}
+	}
+
+	// rebuild the index of a stale label from the dense array, within its
+	// old bounding box (a label only shrinks when it is overwritten)
+	private void refresh(int label) {
+		if (!stale[label])
+			return;
+		stale[label] = false;
+		Rectangle b = bounds(label);
+		reset(label);
+		if (b == null)
+			return;
+		final byte value = (byte) label;
+		for (int y = b.y; y < b.y + b.height; y++) {
+			final int row = y * width;
+			int x = b.x;
+			while (x < b.x + b.width) {
+				if (pixels[row + x] != value) {
+					x++;
+					continue;
+				}
+				int end = x + 1;
+				while (end < b.x + b.width && pixels[row + end] == value)
+					end++;
+				addRun(label, y, x, end);
+				x = end;
+			}
+		}
+	}
+
+	private void addRun(int label, int y, int x0, int x1) {
+		int[] r = runs[label];
+		int n = numRuns[label] * 3;
+		if (r == null) {
+			r = runs[label] = new int[3 * 16];
+		} else if (n + 3 > r.length) {
+			r = runs[label] = Arrays.copyOf(r, r.length * 2);
+		}
+		r[n] = y;
+		r[n + 1] = x0;
+		r[n + 2] = x1;
+		numRuns[label]++;
+		count[label] += x1 - x0;
+		minX[label] = Math.min(minX[label], x0);
+		maxX[label] = Math.max(maxX[label], x1 - 1);
+		minY[label] = Math.min(minY[label], y);
+		maxY[label] = Math.max(maxY[label], y);
+	}
+
+	private void reset(int label) {
+		runs[label] = null;
+		numRuns[label] = 0;
+		count[label] = 0;
+		minX[label] = minY[label] = Integer.MAX_VALUE;
+		maxX[label] = maxY[label] = -1;
+	}
+
+	private Rectangle bounds(int label) {
+		if (maxX[label] < 0)
+			return null;
+		return new Rectangle(minX[label], minY[label], maxX[label]
+				- minX[label] + 1, maxY[label] - minY[label] + 1);
+	}
+}
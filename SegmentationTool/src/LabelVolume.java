@@ -0,0 +1,17 @@
+// per voxel labels (0 = unlabeled, up to 255 labels) of a volume, wherever
+// they are stored
+public interface LabelVolume {
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public int getDepth();
+
+	// label of voxel (x,y,z)
+	public int getLabel(int x, int y, int z);
+
+	// assign a label to voxel (x,y,z)
+	public void setLabel(int x, int y, int z, int label);
+
+}
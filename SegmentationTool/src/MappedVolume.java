@@ -0,0 +1,299 @@
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// out-of-core volume: 16 bit voxels and 8 bit labels live in files that are
+// memory mapped, so only the parts in use occupy memory and the OS page
+// cache decides what stays resident. both files are stored in bricks of
+// 32x32x32 voxels, so that neighboring rows and slices (as visited by the
+// region growing) are close to each other in the file. a file may be
+// larger than one mapping (2 GB), so it is mapped in chunks of whole
+// bricks. the voxels are stored little endian on every platform. an info
+// file next to the brick file records the raw file it was imported from
+// (length, modification time, header size and byte order), the size, brick
+// size and byte order; it is written only after an import has finished, so
+// a brick file without a matching info file is incomplete or belongs to
+// another volume or an older version of the raw file.
+public class MappedVolume implements VoxelVolume, LabelVolume {
+
+	// bricks have an edge length of 1 << BRICK_BITS voxels
+	static final int BRICK_BITS = 5;
+	static final int BRICK = 1 << BRICK_BITS;
+	static final int BRICK_MASK = BRICK - 1;
+	static final int VOXELS_PER_BRICK = BRICK * BRICK * BRICK;
+
+	// upper limit for one mapped chunk
+	private static final long MAX_CHUNK_BYTES = 1L << 30;
+
+	// byte order of the brick files
+	private static final ByteOrder FILE_ORDER = ByteOrder.LITTLE_ENDIAN;
+
+	// first int of an info file, and its format version
+	private static final int INFO_MAGIC = 0x53474256; // "SGBV"
+	private static final int INFO_VERSION = 1;
+
+	private final int width, height, depth;
+	private final int bricksX, bricksY;
+
+	private final Bricks voxels;
+	private final Bricks labels;
+
+	private MappedVolume(int width, int height, int depth, Bricks voxels,
+			Bricks labels) {
+		this.width = width;
+		this.height = height;
+		this.depth = depth;
+		this.bricksX = (width + BRICK_MASK) >> BRICK_BITS;
+		this.bricksY = (height + BRICK_MASK) >> BRICK_BITS;
+		this.voxels = voxels;
+		this.labels = labels;
+	}
+
+	// map existing brick files of a volume imported from rawFile. fails if
+	// the brick file was not imported completely from this raw file as it
+	// is now, with these parameters.
+	public static MappedVolume open(File rawFile, long headerBytes,
+			boolean bigEndian, int width, int height, int depth,
+			File voxelFile, File labelFile) throws IOException {
+		if (!isImported(rawFile, headerBytes, bigEndian, width, height,
+				depth, voxelFile))
+			throw new IOException(voxelFile.getName()
+					+ " is incomplete or was imported from another volume");
+		long numBricks = numBricks(width, height, depth);
+		return new MappedVolume(width, height, depth, new Bricks(voxelFile,
+				2, numBricks, false), new Bricks(labelFile, 1, numBricks, true));
+	}
+
+	// convert a raw file of 16 bit slices (slice after slice, row after row,
+	// as written by most scanners) into a brick file and create an empty
+	// label file next to it. the raw file is read through a mapping as
+	// well, slice by slice, so no slice has to fit onto the heap at once.
+	public static MappedVolume importRaw(File rawFile, long headerBytes,
+			boolean bigEndian, int width, int height, int depth,
+			File voxelFile, File labelFile) throws IOException {
+		// files of an earlier import are replaced, the labels start empty
+		File infoFile = infoFile(voxelFile);
+		deleteIfExists(infoFile);
+		deleteIfExists(voxelFile);
+		deleteIfExists(labelFile);
+
+		long numBricks = numBricks(width, height, depth);
+		Bricks voxels = new Bricks(voxelFile, 2, numBricks, true);
+		Bricks labels = new Bricks(labelFile, 1, numBricks, true);
+		MappedVolume volume = new MappedVolume(width, height, depth, voxels,
+				labels);
+
+		final long sliceBytes = 2L * width * height;
+		RandomAccessFile raw = new RandomAccessFile(rawFile, "r");
+		try {
+			FileChannel channel = raw.getChannel();
+			for (int z = 0; z < depth; z++) {
+				MappedByteBuffer slice = channel.map(
+						FileChannel.MapMode.READ_ONLY, headerBytes + z
+								* sliceBytes, sliceBytes);
+				slice.order(bigEndian ? ByteOrder.BIG_ENDIAN
+						: ByteOrder.LITTLE_ENDIAN);
+				for (int y = 0; y < height; y++) {
+					for (int x = 0; x < width; x++) {
+						volume.voxels.putShort(volume.brickOffset(x, y, z),
+								slice.getShort(2 * (x + y * width)));
+					}
+				}
+			}
+		} finally {
+			raw.close();
+		}
+
+		// the import is complete once the voxels are on disk
+		voxels.force();
+		labels.force();
+		DataOutputStream info = new DataOutputStream(new FileOutputStream(
+				infoFile));
+		try {
+			info.writeInt(INFO_MAGIC);
+			info.writeInt(INFO_VERSION);
+			info.writeLong(rawFile.length());
+			info.writeLong(rawFile.lastModified());
+			info.writeLong(headerBytes);
+			info.writeBoolean(bigEndian);
+			info.writeInt(width);
+			info.writeInt(height);
+			info.writeInt(depth);
+			info.writeInt(BRICK_BITS);
+			info.writeBoolean(FILE_ORDER == ByteOrder.BIG_ENDIAN);
+		} finally {
+			info.close();
+		}
+		return volume;
+	}
+
+	// true if voxelFile holds a complete import of rawFile, unchanged since,
+	// with the given header size, byte order and size, in the layout and
+	// byte order of this class
+	public static boolean isImported(File rawFile, long headerBytes,
+			boolean bigEndian, int width, int height, int depth,
+			File voxelFile) {
+		File infoFile = infoFile(voxelFile);
+		if (!rawFile.isFile() || !voxelFile.isFile() || !infoFile.isFile())
+			return false;
+		try {
+			DataInputStream info = new DataInputStream(new FileInputStream(
+					infoFile));
+			try {
+				return info.readInt() == INFO_MAGIC
+						&& info.readInt() == INFO_VERSION
+						&& info.readLong() == rawFile.length()
+						&& info.readLong() == rawFile.lastModified()
+						&& info.readLong() == headerBytes
+						&& info.readBoolean() == bigEndian
+						&& info.readInt() == width
+						&& info.readInt() == height
+						&& info.readInt() == depth
+						&& info.readInt() == BRICK_BITS
+						&& info.readBoolean() == (FILE_ORDER == ByteOrder.BIG_ENDIAN)
+						&& voxelFile.length() >= numBricks(width, height,
+								depth) * VOXELS_PER_BRICK * 2;
+			} finally {
+				info.close();
+			}
+		} catch (IOException e) {
+			// unreadable or truncated
+			return false;
+		}
+	}
+
+	private static File infoFile(File voxelFile) {
+		return new File(voxelFile.getPath() + ".info");
+	}
+
+	private static void deleteIfExists(File file) throws IOException {
+		if (file.exists() && !file.delete())
+			throw new IOException("Could not delete " + file.getName());
+	}
+
+	private static long numBricks(int width, int height, int depth) {
+		return (long) ((width + BRICK_MASK) >> BRICK_BITS)
+				* ((height + BRICK_MASK) >> BRICK_BITS)
+				* ((depth + BRICK_MASK) >> BRICK_BITS);
+	}
+
+	// voxel number of (x,y,z) in the brick layout
+	private long brickOffset(int x, int y, int z) {
+		long brick = ((long) (z >> BRICK_BITS) * bricksY + (y >> BRICK_BITS))
+				* bricksX + (x >> BRICK_BITS);
+		int inBrick = ((z & BRICK_MASK) << (2 * BRICK_BITS))
+				| ((y & BRICK_MASK) << BRICK_BITS) | (x & BRICK_MASK);
+		return brick * VOXELS_PER_BRICK + inBrick;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return depth;
+	}
+
+	@Override
+	public int getVoxel(int x, int y, int z) {
+		return voxels.getShort(brickOffset(x, y, z)) & 0xffff;
+	}
+
+	@Override
+	public int getLabel(int x, int y, int z) {
+		return labels.getByte(brickOffset(x, y, z)) & 0xff;
+	}
+
+	@Override
+	public void setLabel(int x, int y, int z, int label) {
+		labels.putByte(brickOffset(x, y, z), (byte) label);
+	}
+
+	// write changed labels back to the file
+	public void flush() {
+		labels.force();
+	}
+
+	// one brick file, mapped in chunks of whole bricks
+	private static class Bricks {
+		private final MappedByteBuffer[] chunks;
+		private final int bytesPerVoxel;
+		private final long voxelsPerChunk;
+
+		Bricks(File file, int bytesPerVoxel, long numBricks, boolean writable)
+				throws IOException {
+			this.bytesPerVoxel = bytesPerVoxel;
+			final long brickBytes = (long) VOXELS_PER_BRICK * bytesPerVoxel;
+			final long bricksPerChunk = MAX_CHUNK_BYTES / brickBytes;
+			this.voxelsPerChunk = bricksPerChunk * VOXELS_PER_BRICK;
+			final long totalBytes = numBricks * brickBytes;
+			this.chunks = new MappedByteBuffer[(int) ((numBricks
+					+ bricksPerChunk - 1) / bricksPerChunk)];
+
+			// the mappings stay valid after the file is closed
+			RandomAccessFile raf = new RandomAccessFile(file, writable ? "rw"
+					: "r");
+			try {
+				if (writable && raf.length() < totalBytes)
+					raf.setLength(totalBytes);
+				FileChannel channel = raf.getChannel();
+				for (int c = 0; c < chunks.length; c++) {
+					long position = c * bricksPerChunk * brickBytes;
+					long size = Math.min(bricksPerChunk * brickBytes,
+							totalBytes - position);
+					chunks[c] = channel.map(
+							writable ? FileChannel.MapMode.READ_WRITE
+									: FileChannel.MapMode.READ_ONLY,
+							position, size);
+					chunks[c].order(FILE_ORDER);
+				}
+			} finally {
+				raf.close();
+			}
+		}
+
+		short getShort(long voxel) {
+			return chunks[(int) (voxel / voxelsPerChunk)]
+					.getShort((int) (voxel % voxelsPerChunk) * bytesPerVoxel);
+		}
+
+		void putShort(long voxel, short value) {
+			chunks[(int) (voxel / voxelsPerChunk)].putShort(
+					(int) (voxel % voxelsPerChunk) * bytesPerVoxel, value);
+		}
+
+		byte getByte(long voxel) {
+			return chunks[(int) (voxel / voxelsPerChunk)]
+					.get((int) (voxel % voxelsPerChunk));
+		}
+
+		void putByte(long voxel, byte value) {
+			chunks[(int) (voxel / voxelsPerChunk)].put(
+					(int) (voxel % voxelsPerChunk), value);
+		}
+
+		void force() {
+			for (MappedByteBuffer chunk : chunks)
+				chunk.force();
+		}
+	}
+}
@@ -0,0 +1,285 @@
+import java.awt.Rectangle;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// binary morphology with square kernels of any (odd) size on packed
+// selection masks. a square kernel is separable, so every operation is a
+// horizontal pass followed by a vertical pass:
+// - horizontally, each run of selected pixels in a row is widened by the
+// kernel radius and written with whole-word fills (cost depends on the
+// number of runs, not on the kernel size)
+// - vertically, rows are combined word by word with the van Herk/Gil-Werman
+// scheme: per block of kernel_size rows, a prefix and a suffix OR are built,
+// every output row is then the OR of one suffix and one prefix row (3 word
+// operations per word, independent of the kernel size)
+// pixels outside the image count as unselected for dilation and as selected
+// for erosion, so erosion does not eat into the selection at the image
+// border.
+// only the window of the selection's bounding box plus the kernel radius
+// (in whole words) is processed: nothing outside of it can change, and the
+// kernel of a pixel inside the bounding box never reaches beyond it, so the
+// result does not depend on whether the window or the image is processed.
+public class Morphology {
+
+	private Morphology() {
+	}
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric morphologyTime = SegmentationMetrics
+			.timer("morphology.time");
+	private static final SegmentationMetrics.Metric morphologyPasses = SegmentationMetrics
+			.counter("morphology.passes");
+
+	// dilate the mask with a kernel_size x kernel_size square
+	public static SelectionMask dilate(SelectionMask src, int kernel_size) {
+		return filter(src, kernel_size, true);
+	}
+
+	// erode the mask with a kernel_size x kernel_size square: a pixel stays
+	// selected only if all pixels of the kernel around it are selected
+	public static SelectionMask erode(SelectionMask src, int kernel_size) {
+		return filter(src, kernel_size, false);
+	}
+
+	// erosion followed by dilation: removes structures smaller than the
+	// kernel
+	public static SelectionMask open(SelectionMask src, int kernel_size) {
+		return dilate(erode(src, kernel_size), kernel_size);
+	}
+
+	// dilation followed by erosion: closes gaps and holes smaller than the
+	// kernel
+	public static SelectionMask close(SelectionMask src, int kernel_size) {
+		return erode(dilate(src, kernel_size), kernel_size);
+	}
+
+	// dilate or erode the window around the selection, see above
+	private static SelectionMask filter(SelectionMask src, int kernel_size,
+			boolean dilate) {
+		final long startTime = morphologyTime.start();
+		final int radius = kernel_size / 2;
+		SelectionMask result = new SelectionMask(src.width, src.height);
+		Rectangle b = src.getBounds();
+		if (b != null) {
+			final int y0 = Math.max(0, b.y - radius);
+			final int y1 = Math.min(src.height, b.y + b.height + radius);
+			final int w0 = Math.max(0, b.x - radius) >>> 6;
+			final int w1 = ((Math.min(src.width, b.x + b.width + radius) - 1) >>> 6) + 1;
+			SelectionMask part = src.crop(y0, y1, w0, w1);
+			result.paste(dilate ? dilateAll(part, radius) : erodeAll(part,
+					radius), y0, w0);
+		}
+		morphologyTime.stop(startTime);
+		return result;
+	}
+
+	// dilation of the whole mask
+	private static SelectionMask dilateAll(SelectionMask src, int radius) {
+		SelectionMask rows = new SelectionMask(src.width, src.height);
+		dilateRows(src, rows, radius);
+		SelectionMask result = new SelectionMask(src.width, src.height);
+		dilateColumns(rows, result, radius);
+		return result;
+	}
+
+	// erosion of the whole mask, as dilation of the complement
+	private static SelectionMask erodeAll(SelectionMask src, int radius) {
+		SelectionMask result = dilateAll(complement(src), radius);
+		invert(result);
+		return result;
+	}
+
+	// dilate a volume (one mask per slice) with a kernel_size^3 cube: every
+	// slice is dilated in 2D, then the slices are combined along z with the
+	// same van Herk/Gil-Werman scheme as the rows
+	public static SelectionMask[] dilate(SelectionMask[] src, int kernel_size) {
+		SelectionMask[] planes = new SelectionMask[src.length];
+		for (int z = 0; z < src.length; z++)
+			planes[z] = dilate(src[z], kernel_size);
+		long[][] in = new long[src.length][];
+		for (int z = 0; z < src.length; z++)
+			in[z] = planes[z].words;
+		SelectionMask[] result = new SelectionMask[src.length];
+		long[][] out = new long[src.length][];
+		for (int z = 0; z < src.length; z++) {
+			result[z] = new SelectionMask(src[z].width, src[z].height);
+			result[z].includeAll();
+			out[z] = result[z].words;
+		}
+		orWindow(in, out, kernel_size / 2);
+		return result;
+	}
+
+	// erode a volume with a kernel_size^3 cube
+	public static SelectionMask[] erode(SelectionMask[] src, int kernel_size) {
+		SelectionMask[] inverted = new SelectionMask[src.length];
+		for (int z = 0; z < src.length; z++)
+			inverted[z] = complement(src[z]);
+		SelectionMask[] result = dilate(inverted, kernel_size);
+		for (int z = 0; z < src.length; z++)
+			invert(result[z]);
+		return result;
+	}
+
+	// opening of a volume
+	public static SelectionMask[] open(SelectionMask[] src, int kernel_size) {
+		return dilate(erode(src, kernel_size), kernel_size);
+	}
+
+	// closing of a volume
+	public static SelectionMask[] close(SelectionMask[] src, int kernel_size) {
+		return erode(dilate(src, kernel_size), kernel_size);
+	}
+
+	// out[i] = in[i-radius] | ... | in[i+radius] for sequences of equally
+	// long word arrays (slices), van Herk/Gil-Werman with empty padding
+	static void orWindow(long[][] in, long[][] out, int radius) {
+		morphologyPasses.increment();
+		final int n = in.length;
+		if (n == 0)
+			return;
+		final int len = in[0].length;
+		if (radius == 0) {
+			for (int i = 0; i < n; i++)
+				System.arraycopy(in[i], 0, out[i], 0, len);
+			return;
+		}
+		final int k = 2 * radius + 1;
+		final int padded = n + 2 * radius;
+		long[][] prefix = new long[padded][];
+		long[][] suffix = new long[padded][];
+		final long[] empty = new long[len];
+		for (int p = 0; p < padded; p++) {
+			final int i = p - radius;
+			final long[] v = (i >= 0 && i < n) ? in[i] : empty;
+			if (p % k == 0) {
+				prefix[p] = v;
+			} else {
+				prefix[p] = new long[len];
+				for (int w = 0; w < len; w++)
+					prefix[p][w] = v[w] | prefix[p - 1][w];
+			}
+		}
+		for (int p = padded - 1; p >= 0; p--) {
+			final int i = p - radius;
+			final long[] v = (i >= 0 && i < n) ? in[i] : empty;
+			if (p % k == k - 1 || p == padded - 1) {
+				suffix[p] = v;
+			} else {
+				suffix[p] = new long[len];
+				for (int w = 0; w < len; w++)
+					suffix[p][w] = v[w] | suffix[p + 1][w];
+			}
+		}
+		for (int i = 0; i < n; i++) {
+			final long[] s = suffix[i];
+			final long[] e = prefix[i + 2 * radius];
+			for (int w = 0; w < len; w++)
+				out[i][w] = s[w] | e[w];
+		}
+	}
+
+	// horizontal pass: widen every run of selected pixels by radius
+	static void dilateRows(SelectionMask src, SelectionMask dst, int radius) {
+		morphologyPasses.increment();
+		final int width = src.width;
+		for (int y = 0; y < src.height; y++) {
+			// runs whose widened ranges overlap are merged before writing,
+			// so every word is written at most once per row
+			int from = -1, to = -1;
+			int x = src.nextSetBit(y, 0);
+			while (x >= 0) {
+				int end = src.nextClearBit(y, x);
+				int a = Math.max(0, x - radius);
+				int b = Math.min(width, end + radius);
+				if (from >= 0 && a <= to) {
+					to = b;
+				} else {
+					if (from >= 0)
+						dst.setRange(y, from, to);
+					from = a;
+					to = b;
+				}
+				x = src.nextSetBit(y, end);
+			}
+			if (from >= 0)
+				dst.setRange(y, from, to);
+		}
+	}
+
+	// vertical pass: every output row is the OR of the input rows
+	// y-radius ... y+radius (van Herk/Gil-Werman)
+	static void dilateColumns(SelectionMask src, SelectionMask dst, int radius) {
+		morphologyPasses.increment();
+		final int wpr = src.wordsPerRow;
+		final int height = src.height;
+		final long[] in = src.words;
+		final long[] out = dst.words;
+		dst.includeAll();
+		if (radius == 0) {
+			System.arraycopy(in, 0, out, 0, in.length);
+			return;
+		}
+
+		// the input is padded with radius empty rows on both sides, padded
+		// row p corresponds to image row p - radius
+		final int k = 2 * radius + 1;
+		final int padded = height + 2 * radius;
+		long[] prefix = new long[padded * wpr];
+		long[] suffix = new long[padded * wpr];
+
+		// prefix OR from the start of each block of k rows
+		for (int p = 0; p < padded; p++) {
+			final int y = p - radius;
+			final int dstRow = p * wpr;
+			final boolean blockStart = (p % k == 0);
+			for (int w = 0; w < wpr; w++) {
+				long v = (y >= 0 && y < height) ? in[y * wpr + w] : 0L;
+				prefix[dstRow + w] = blockStart ? v : v | prefix[dstRow - wpr + w];
+			}
+		}
+
+		// suffix OR up to the end of each block of k rows
+		for (int p = padded - 1; p >= 0; p--) {
+			final int y = p - radius;
+			final int dstRow = p * wpr;
+			final boolean blockEnd = (p % k == k - 1) || (p == padded - 1);
+			for (int w = 0; w < wpr; w++) {
+				long v = (y >= 0 && y < height) ? in[y * wpr + w] : 0L;
+				suffix[dstRow + w] = blockEnd ? v : v | suffix[dstRow + wpr + w];
+			}
+		}
+
+		// window of padded rows [y, y+2*radius] for every image row y
+		for (int y = 0; y < height; y++) {
+			final int s = y * wpr;
+			final int e = (y + 2 * radius) * wpr;
+			for (int w = 0; w < wpr; w++)
+				out[s + w] = suffix[s + w] | prefix[e + w];
+		}
+	}
+
+	// inverted copy of a mask
+	static SelectionMask complement(SelectionMask src) {
+		SelectionMask result = src.copy();
+		invert(result);
+		return result;
+	}
+
+	// invert all pixels of a mask in place, keeping the bits beyond the row
+	// width zero
+	static void invert(SelectionMask mask) {
+		final long[] words = mask.words;
+		final int wpr = mask.wordsPerRow;
+		final long lastWordMask = -1L >>> -(mask.width - ((wpr - 1) << 6));
+		mask.includeAll();
+		for (int row = 0; row < words.length; row += wpr) {
+			for (int w = 0; w < wpr - 1; w++)
+				words[row + w] = ~words[row + w];
+			words[row + wpr - 1] = ~words[row + wpr - 1] & lastWordMask;
+		}
+	}
+}
@@ -0,0 +1,184 @@
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// seeded region growing (Adams/Bischof) from several labeled seeds at
+// once: the regions of all seeds grow in one pass and compete for the
+// pixels between them. a pixel reached by a region is queued with the
+// distance of its value from the current mean of that region; if another
+// region reaches it with a smaller distance while it is still queued, it
+// moves to that region. the queue always continues with the smallest
+// distance, the pixel then finally belongs to its region and counts for
+// its mean. so every region first takes the pixels most similar to it,
+// and regions meet where the image is least similar to either of them
+// (like watershed flooding).
+// every pixel is in the queue at most once. the queue is a bucket queue
+// with one list per distance (0 ... 65535), doubly linked through int
+// arrays over the pixels, so pushing, moving and popping are O(1) and
+// nothing is allocated after the first call. a two level bitmap of the
+// non-empty buckets finds the next one to pop with two word scans at
+// most, however wide the distances are spread. regions of seeds with the
+// same label share their statistics. the criteria of RegionGrowing
+// (threshold range, gradient, labels) and its neighborhood apply as in
+// the other engines.
+class MultiSeedRegionGrowing {
+
+	private static final int BUCKETS = 65536;
+
+	// distance of a pixel that is no longer queued
+	private static final int DONE = BUCKETS;
+
+	private final RegionGrowing grower;
+
+	// first and last pixel of each bucket (-1: empty); per queued pixel
+	// the neighbors in its bucket, its distance (bucket) and the label
+	// that reached it
+	private final int[] head = new int[BUCKETS];
+	private final int[] tail = new int[BUCKETS];
+	private int[] next = new int[0];
+	private int[] prev = new int[0];
+	private int[] distance = new int[0];
+	private byte[] owner = new byte[0];
+
+	// bit b of nonEmpty: bucket b is not empty; bit w of nonEmptyWords:
+	// word w of nonEmpty is not zero
+	private final long[] nonEmpty = new long[BUCKETS / 64];
+	private final long[] nonEmptyWords = new long[BUCKETS / 64 / 64];
+
+	// sum and number of values per label
+	private final long[] sum = new long[256];
+	private final int[] count = new int[256];
+
+	MultiSeedRegionGrowing(RegionGrowing grower) {
+		this.grower = grower;
+		Arrays.fill(head, -1);
+	}
+
+	// grow from seeds (pixel indices) with the given labels. the pixels
+	// claimed by a label are set in regions[label], which has to exist for
+	// every label of a seed. seeds are selected but not tested, as the
+	// start pixel in the other engines. returns the number of claimed
+	// pixels, seeds included.
+	int grow(int[] seeds, byte[] seedLabels, SelectionMask[] regions,
+			short[] pixels, PixelNeighborhoodTable neighborhood) {
+		final int width = grower.width;
+		final int n = width * grower.height;
+		if (next.length < n) {
+			next = new int[n];
+			prev = new int[n];
+			distance = new int[n];
+			owner = new byte[n];
+		}
+		final int[] offsets = neighborhood.offsets;
+		Arrays.fill(sum, 0);
+		Arrays.fill(count, 0);
+
+		// the seeds are queued first, with distance 0
+		final VisitedMarks visited = grower.startPass();
+		int queued = 0;
+		for (int s = 0; s < seeds.length; s++) {
+			final int idx = seeds[s];
+			if (visited.get(idx))
+				continue;
+			final int label = seedLabels[s] & 0xff;
+			visited.set(idx);
+			owner[idx] = (byte) label;
+			push(idx, 0);
+			queued++;
+		}
+
+		int claimed = 0;
+		while (queued > 0) {
+			final int idx = head[firstBucket()];
+			remove(idx);
+			queued--;
+
+			// the pixel now belongs to its region
+			final int label = owner[idx] & 0xff;
+			sum[label] += pixels[idx] & 0xffff;
+			count[label]++;
+			distance[idx] = DONE;
+			final int x = idx % width;
+			final int y = idx / width;
+			regions[label].set(x, y);
+			claimed++;
+
+			// rounded mean of the region, the distances of its neighbors
+			// are measured from it
+			final int mean = (int) ((sum[label] + count[label] / 2) / count[label]);
+			final boolean interior = neighborhood.isInterior(x, y);
+			for (int i = 0; i < offsets.length; i++) {
+				if (!interior && !neighborhood.isValidNeighbor(x, y, i))
+					continue;
+				final int q = idx + offsets[i];
+				final boolean reached = visited.get(q);
+				if (reached
+						&& (distance[q] == DONE || (owner[q] & 0xff) == label))
+					continue;
+				if (!reached && !grower.isFillable(q))
+					continue;
+				final int v = pixels[q] & 0xffff;
+				final int d = Math.abs(v - mean);
+				if (reached) {
+					// still queued for another region: move if closer
+					if (d >= distance[q])
+						continue;
+					remove(q);
+				} else {
+					visited.set(q);
+					queued++;
+				}
+				owner[q] = (byte) label;
+				push(q, d);
+			}
+		}
+		return claimed;
+	}
+
+	// append a pixel to the list of its bucket
+	private void push(int idx, int bucket) {
+		distance[idx] = bucket;
+		next[idx] = -1;
+		if (head[bucket] < 0) {
+			prev[idx] = -1;
+			head[bucket] = idx;
+			nonEmpty[bucket >>> 6] |= 1L << bucket;
+			nonEmptyWords[bucket >>> 12] |= 1L << (bucket >>> 6);
+		} else {
+			prev[idx] = tail[bucket];
+			next[tail[bucket]] = idx;
+		}
+		tail[bucket] = idx;
+	}
+
+	// unlink a queued pixel from the list of its bucket
+	private void remove(int idx) {
+		final int bucket = distance[idx];
+		if (prev[idx] < 0) {
+			head[bucket] = next[idx];
+			if (head[bucket] < 0) {
+				nonEmpty[bucket >>> 6] &= ~(1L << bucket);
+				if (nonEmpty[bucket >>> 6] == 0)
+					nonEmptyWords[bucket >>> 12] &= ~(1L << (bucket >>> 6));
+			}
+		} else {
+			next[prev[idx]] = next[idx];
+		}
+		if (next[idx] < 0)
+			tail[bucket] = prev[idx];
+		else
+			prev[next[idx]] = prev[idx];
+	}
+
+	// smallest non-empty bucket (the queue must not be empty)
+	private int firstBucket() {
+		int i = 0;
+		while (nonEmptyWords[i] == 0)
+			i++;
+		final int w = (i << 6) + Long.numberOfTrailingZeros(nonEmptyWords[i]);
+		return (w << 6) + Long.numberOfTrailingZeros(nonEmpty[w]);
+	}
+}
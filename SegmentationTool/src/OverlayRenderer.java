@@ -0,0 +1,304 @@
+import java.awt.Rectangle;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// renders the RGB output image of the segmentation tool incrementally, from
+// lookup tables instead of per pixel arithmetic:
+// - valueLut maps every possible 16 bit value to a palette entry: its gray
+// level in the display window, tinted or not by the threshold range. it is
+// rebuilt only if window or thresholds change.
+// - the palette holds the 256 gray levels, the 256 tinted gray levels and
+// the label colors, selectionPalette the same colors blended with the
+// selection color.
+// a pixel is then palette (or selectionPalette) [label or valueLut[v]], no
+// floating point involved. changes of window or thresholds recomposite the
+// whole image, changes of labels or selection only the dirty rectangle
+// reported through invalidate().
+// render() may run on a worker thread (see RenderScheduler) while labels
+// and selection change on the UI thread. so a frame is not rendered from
+// them directly: capture() copies, on the UI thread, the labels and the
+// selection within the region to recomposite into the parameters of the
+// frame, and render() only reads that copy. the dirty rectangle belongs to
+// the UI thread (guarded by the renderer's lock nevertheless), the tables
+// to the thread that renders.
+class OverlayRenderer {
+
+	// everything a frame depends on. as constructed, labels and selection
+	// are the live ones; capture() turns this into a frame's own copy of
+	// them within region.
+	static class Parameters {
+		final short[] in;
+		final byte[] labels;
+		final SelectionMask selection;
+		final int[] labelColors;
+		final int wmin, wmax;
+		final boolean useThreshold;
+		final int minThreshold, maxThreshold;
+
+		// region the copies cover (null for the live state): labels row by
+		// row, selection cropped to whole words from x = selectionX
+		final Rectangle region;
+		final int selectionX;
+
+		Parameters(short[] in, byte[] labels, SelectionMask selection,
+				int[] labelColors, int wmin, int wmax, boolean useThreshold,
+				int minThreshold, int maxThreshold) {
+			this(in, labels, selection, labelColors, wmin, wmax,
+					useThreshold, minThreshold, maxThreshold, null, 0);
+		}
+
+		private Parameters(short[] in, byte[] labels, SelectionMask selection,
+				int[] labelColors, int wmin, int wmax, boolean useThreshold,
+				int minThreshold, int maxThreshold, Rectangle region,
+				int selectionX) {
+			this.in = in;
+			this.labels = labels;
+			this.selection = selection;
+			this.labelColors = labelColors;
+			this.wmin = wmin;
+			this.wmax = wmax;
+			this.useThreshold = useThreshold;
+			this.minThreshold = minThreshold;
+			this.maxThreshold = maxThreshold;
+			this.region = region;
+			this.selectionX = selectionX;
+		}
+	}
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric renderTime = SegmentationMetrics
+			.timer("render.time");
+	private static final SegmentationMetrics.Metric renderPixels = SegmentationMetrics
+			.histogram("render.pixels");
+	private static final SegmentationMetrics.Metric renderCancelled = SegmentationMetrics
+			.counter("render.cancelled");
+
+	// rows composited between two checks for cancellation
+	private static final int CANCEL_CHECK_ROWS = 16;
+
+	// palette layout: gray levels, tinted gray levels, label colors
+	private static final int TINTED = 256;
+	private static final int LABELS = 512;
+
+	private final int width, height;
+
+	// colors and blend weights (0..256) of the overlays
+	private final int thresholdColor, thresholdWeight;
+	private final int selectionColor, selectionWeight;
+
+	// lookup tables
+	private final char[] valueLut = new char[65536];
+	private int[] palette = new int[LABELS];
+	private int[] selectionPalette = new int[LABELS];
+
+	// parameters the tables were computed with
+	private boolean lutValid = false;
+	private int renderedWmin, renderedWmax;
+	private boolean renderedUseThreshold;
+	private int renderedMinThreshold, renderedMaxThreshold;
+	private int[] renderedLabelColors;
+
+	// parameters of the last capture, a change of them recomposites the
+	// whole image
+	private boolean captured = false;
+	private int capturedWmin, capturedWmax;
+	private boolean capturedUseThreshold;
+	private int capturedMinThreshold, capturedMaxThreshold;
+	private int[] capturedLabelColors;
+
+	// region of the output that has to be recomposited, null if none
+	private Rectangle dirty;
+
+	OverlayRenderer(int width, int height, int thresholdColor,
+			double thresholdAlpha, int selectionColor, double selectionAlpha) {
+		this.width = width;
+		this.height = height;
+		this.thresholdColor = thresholdColor;
+		this.thresholdWeight = (int) Math.round(thresholdAlpha * 256);
+		this.selectionColor = selectionColor;
+		this.selectionWeight = (int) Math.round(selectionAlpha * 256);
+		this.dirty = new Rectangle(0, 0, width, height);
+		buildGrayPalette();
+	}
+
+	// labels or selection changed within r (null: nothing changed)
+	synchronized void invalidate(Rectangle r) {
+		if (r == null)
+			return;
+		dirty = (dirty == null) ? new Rectangle(r) : dirty.union(r);
+	}
+
+	// everything has to be recomposited, e.g. for a new output image
+	synchronized void invalidateAll() {
+		dirty = new Rectangle(0, 0, width, height);
+	}
+
+	// take the dirty region, clipped to the image
+	private synchronized Rectangle takeDirty() {
+		if (dirty == null)
+			return null;
+		Rectangle r = dirty.intersection(new Rectangle(0, 0, width, height));
+		dirty = null;
+		return r.isEmpty() ? null : r;
+	}
+
+	// on the UI thread: the parameters of the next frame, from the live
+	// state in p. copies labels and selection within the dirty region and
+	// also (may be null, e.g. the region of a frame that was superseded
+	// before it was shown). returns null if nothing has to be recomposited.
+	Parameters capture(Parameters p, Rectangle also) {
+		if (!captured || p.wmin != capturedWmin || p.wmax != capturedWmax
+				|| p.useThreshold != capturedUseThreshold
+				|| p.minThreshold != capturedMinThreshold
+				|| p.maxThreshold != capturedMaxThreshold
+				|| p.labelColors != capturedLabelColors) {
+			captured = true;
+			capturedWmin = p.wmin;
+			capturedWmax = p.wmax;
+			capturedUseThreshold = p.useThreshold;
+			capturedMinThreshold = p.minThreshold;
+			capturedMaxThreshold = p.maxThreshold;
+			capturedLabelColors = p.labelColors;
+			invalidateAll();
+		}
+		invalidate(also);
+
+		Rectangle r = takeDirty();
+		if (r == null)
+			return null;
+		byte[] labels = new byte[r.width * r.height];
+		for (int y = r.y; y < r.y + r.height; y++)
+			System.arraycopy(p.labels, r.x + y * width, labels, (y - r.y)
+					* r.width, r.width);
+		final int w0 = r.x >>> 6;
+		final int w1 = (r.x + r.width + 63) >>> 6;
+		SelectionMask selection = p.selection.crop(r.y, r.y + r.height, w0,
+				w1);
+		return new Parameters(p.in, labels, selection, p.labelColors, p.wmin,
+				p.wmax, p.useThreshold, p.minThreshold, p.maxThreshold, r,
+				w0 << 6);
+	}
+
+	// recomposite the region of captured parameters p in out. returns that
+	// region, null if cancel was set during rendering (the caller then has
+	// to pass the region on to the next capture).
+	Rectangle render(Parameters p, int[] out, AtomicBoolean cancel) {
+		final long startTime = renderTime.start();
+
+		if (!lutValid || p.wmin != renderedWmin || p.wmax != renderedWmax
+				|| p.useThreshold != renderedUseThreshold
+				|| p.minThreshold != renderedMinThreshold
+				|| p.maxThreshold != renderedMaxThreshold)
+			buildValueLut(p.wmin, p.wmax, p.useThreshold, p.minThreshold,
+					p.maxThreshold);
+		if (p.labelColors != renderedLabelColors)
+			buildLabelPalette(p.labelColors);
+
+		final Rectangle r = p.region;
+		for (int y = r.y; y < r.y + r.height; y += CANCEL_CHECK_ROWS) {
+			if (cancel != null && cancel.get()) {
+				renderCancelled.increment();
+				return null;
+			}
+			int rows = Math.min(CANCEL_CHECK_ROWS, r.y + r.height - y);
+			composite(p, y, y + rows, out);
+		}
+		renderTime.stop(startTime);
+		renderPixels.record((long) r.width * r.height);
+		return r;
+	}
+
+	// palette entry for every 16 bit value: window mapping to 0..255 with
+	// clipping, plus TINTED if within the threshold range
+	private void buildValueLut(int wmin, int wmax, boolean useThreshold,
+			int minThreshold, int maxThreshold) {
+		final int range = wmax - wmin;
+		for (int value = 0; value < valueLut.length; value++) {
+			int v;
+			if (range > 0) {
+				v = ((value - wmin) * 255) / range;
+			} else {
+				// empty window: everything above it is white
+				v = (value > wmin) ? 255 : 0;
+			}
+			if (v < 0) {
+				v = 0;
+			} else if (v > 255) {
+				v = 255;
+			}
+			if (useThreshold && value >= minThreshold && value <= maxThreshold)
+				v += TINTED;
+			valueLut[value] = (char) v;
+		}
+		renderedWmin = wmin;
+		renderedWmax = wmax;
+		renderedUseThreshold = useThreshold;
+		renderedMinThreshold = minThreshold;
+		renderedMaxThreshold = maxThreshold;
+		lutValid = true;
+	}
+
+	// gray and tinted gray levels, with and without selection
+	private void buildGrayPalette() {
+		for (int g = 0; g < 256; g++) {
+			int v = g + (g << 8) + (g << 16);
+			palette[g] = v;
+			palette[TINTED + g] = blendRGB(v, thresholdColor, thresholdWeight);
+		}
+		for (int i = 0; i < LABELS; i++)
+			selectionPalette[i] = blendRGB(palette[i], selectionColor,
+					selectionWeight);
+	}
+
+	// label colors, with and without selection. labels without a color of
+	// their own reuse the given colors cyclically.
+	private void buildLabelPalette(int[] labelColors) {
+		int[] p = new int[LABELS + LabelMap.MAX_LABELS];
+		int[] sp = new int[LABELS + LabelMap.MAX_LABELS];
+		System.arraycopy(palette, 0, p, 0, LABELS);
+		System.arraycopy(selectionPalette, 0, sp, 0, LABELS);
+		for (int l = 0; l < LabelMap.MAX_LABELS && labelColors.length > 0; l++) {
+			int color = labelColors[l % labelColors.length];
+			p[LABELS + l] = color;
+			sp[LABELS + l] = blendRGB(color, selectionColor, selectionWeight);
+		}
+		palette = p;
+		selectionPalette = sp;
+		renderedLabelColors = labelColors;
+	}
+
+	// compose the output in rows y0 <= y < y1 of the region of p: a label
+	// replaces the value color, the selection picks the blended palette
+	private void composite(Parameters p, int y0, int y1, int[] out) {
+		final char[] lut = valueLut;
+		final int[] plain = palette;
+		final int[] selected = selectionPalette;
+		final short[] in = p.in;
+		final Rectangle r = p.region;
+		for (int y = y0; y < y1; y++) {
+			int i = (y - r.y) * r.width;
+			for (int x = r.x, idx = r.x + y * width; x < r.x + r.width; x++, idx++, i++) {
+				int label = p.labels[i] & 0xff;
+				int entry = (label != 0) ? LABELS + label - 1
+						: lut[in[idx] & 0xffff];
+				out[idx] = p.selection.get(x - p.selectionX, y - r.y) ? selected[entry]
+						: plain[entry];
+			}
+		}
+	}
+
+	// blend rgb2 over rgb1 with a weight of 0..256 for rgb2
+	static int blendRGB(int rgb1, int rgb2, int weight) {
+		final int inv = 256 - weight;
+		int red = (((rgb1 >> 16) & 0xff) * inv + ((rgb2 >> 16) & 0xff)
+				* weight) >> 8;
+		int green = (((rgb1 >> 8) & 0xff) * inv + ((rgb2 >> 8) & 0xff)
+				* weight) >> 8;
+		int blue = ((rgb1 & 0xff) * inv + (rgb2 & 0xff) * weight) >> 8;
+		return (red << 16) | (green << 8) | blue;
+	}
+}
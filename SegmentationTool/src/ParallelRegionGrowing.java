@@ -0,0 +1,232 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// multi-core variant of the region growing: the image is cut into strips of
+// rows that are labeled in parallel, every fillable pixel gets linked into a
+// union-find forest. afterwards the strip borders are merged in parallel as
+// well; the forest uses compare-and-set links only, so no locks are needed.
+// the selection is then every pixel whose root is the root of one of the
+// start pixel's neighbors, which is exactly what the sequential engines
+// select.
+class ParallelRegionGrowing {
+
+	// shared by all growers (and the histogram), one worker per core
+	static final ForkJoinPool pool = new ForkJoinPool();
+
+	private final RegionGrowing grower;
+
+	// union-find forest over all pixels, -1 for pixels that are not fillable
+	private AtomicIntegerArray parent;
+
+	ParallelRegionGrowing(RegionGrowing grower) {
+		this.grower = grower;
+	}
+
+	// grow from startPixel, same contract as RegionGrowing.grow()
+	int grow(PixelInfo startPixel, SelectionMask selection,
+			PixelNeighborhoodTable neighborhood) {
+		final int width = grower.width;
+		final int height = grower.height;
+		final boolean diagonal = neighborhood.numNeighbors() == 8;
+
+		if (parent == null || parent.length() != width * height)
+			parent = new AtomicIntegerArray(width * height);
+
+		// strips are whole rows, so two strips never share a selection word
+		final int numStrips = Math.min(height,
+				pool.getParallelism() * 4);
+		final int stripHeight = (height + numStrips - 1) / numStrips;
+
+		// phase 1: label every strip on its own
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int s = 0; s < height; s += stripHeight) {
+			final int y0 = s;
+			final int y1 = Math.min(height, s + stripHeight);
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					labelStrip(y0, y1, diagonal);
+					return 0;
+				}
+			});
+		}
+		runAll(tasks);
+
+		// phase 2: merge the first row of every strip with the row above
+		tasks.clear();
+		for (int s = stripHeight; s < height; s += stripHeight) {
+			final int y = s;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					mergeRows(y, diagonal);
+					return 0;
+				}
+			});
+		}
+		runAll(tasks);
+
+		// phase 3: the components touching the start pixel
+		selection.set(startPixel.x, startPixel.y);
+		final int[] roots = new int[neighborhood.numNeighbors()];
+		int numRoots = 0;
+		for (int i = 0; i < neighborhood.numNeighbors(); i++) {
+			if (!neighborhood.isValidNeighbor(startPixel.x, startPixel.y, i))
+				continue;
+			int n = startPixel.idx + neighborhood.offsets[i];
+			if (parent.get(n) < 0)
+				continue;
+			int root = find(n);
+			boolean known = false;
+			for (int r = 0; r < numRoots; r++)
+				known |= (roots[r] == root);
+			if (!known)
+				roots[numRoots++] = root;
+		}
+		if (numRoots == 0)
+			return 0;
+
+		// phase 4: select all pixels of these components
+		final int rootCount = numRoots;
+		final SelectionMask target = selection;
+		tasks.clear();
+		for (int s = 0; s < height; s += stripHeight) {
+			final int y0 = s;
+			final int y1 = Math.min(height, s + stripHeight);
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					return selectStrip(y0, y1, roots, rootCount, target);
+				}
+			});
+		}
+		return runAll(tasks);
+	}
+
+	// link all fillable pixels of rows y0 <= y < y1 to their already
+	// visited neighbors (left, above and for 8 neighbors above left/right)
+	private void labelStrip(int y0, int y1, boolean diagonal) {
+		final int width = grower.width;
+		for (int y = y0; y < y1; y++) {
+			for (int x = 0, idx = y * width; x < width; x++, idx++) {
+				if (!grower.isFillable(idx)) {
+					parent.set(idx, -1);
+					continue;
+				}
+				parent.set(idx, idx);
+				if (x > 0 && parent.get(idx - 1) >= 0)
+					union(idx, idx - 1);
+				if (y > y0) {
+					linkAbove(idx, x, diagonal);
+				}
+			}
+		}
+	}
+
+	// link the fillable pixels of row y to those of row y-1
+	private void mergeRows(int y, boolean diagonal) {
+		final int width = grower.width;
+		for (int x = 0, idx = y * width; x < width; x++, idx++) {
+			if (parent.get(idx) >= 0)
+				linkAbove(idx, x, diagonal);
+		}
+	}
+
+	private void linkAbove(int idx, int x, boolean diagonal) {
+		final int width = grower.width;
+		final int up = idx - width;
+		if (parent.get(up) >= 0)
+			union(idx, up);
+		if (diagonal) {
+			if (x > 0 && parent.get(up - 1) >= 0)
+				union(idx, up - 1);
+			if (x < width - 1 && parent.get(up + 1) >= 0)
+				union(idx, up + 1);
+		}
+	}
+
+	// select the pixels of rows y0 <= y < y1 that belong to one of the roots
+	private int selectStrip(int y0, int y1, int[] roots, int numRoots,
+			SelectionMask selection) {
+		final int width = grower.width;
+		int count = 0;
+		// the strip's bounding box is added to the selection's once
+		int minX = width, maxX = -1, minY = -1, maxY = -1;
+		for (int y = y0; y < y1; y++) {
+			for (int x = 0, idx = y * width; x < width; x++, idx++) {
+				if (parent.get(idx) < 0)
+					continue;
+				int root = find(idx);
+				for (int r = 0; r < numRoots; r++) {
+					if (roots[r] == root) {
+						selection.setBit(x, y);
+						count++;
+						if (minY < 0)
+							minY = y;
+						maxY = y;
+						minX = Math.min(minX, x);
+						maxX = Math.max(maxX, x);
+						break;
+					}
+				}
+			}
+		}
+		if (minY >= 0)
+			selection.include(new Rectangle(minX, minY, maxX - minX + 1,
+					maxY - minY + 1));
+		return count;
+	}
+
+	// root of a pixel, halving the path on the way
+	private int find(int idx) {
+		while (true) {
+			int p = parent.get(idx);
+			if (p == idx)
+				return idx;
+			int gp = parent.get(p);
+			if (p != gp)
+				parent.compareAndSet(idx, p, gp);
+			idx = gp;
+		}
+	}
+
+	// join the trees of a and b. the larger root is linked below the
+	// smaller one; if another thread changed the root in between, retry.
+	private void union(int a, int b) {
+		while (true) {
+			a = find(a);
+			b = find(b);
+			if (a == b)
+				return;
+			if (a < b) {
+				int t = a;
+				a = b;
+				b = t;
+			}
+			if (parent.compareAndSet(a, a, b))
+				return;
+		}
+	}
+
+	// run the tasks on the pool and sum up their results
+	static int runAll(List<Callable<Integer>> tasks) {
+		int sum = 0;
+		try {
+			for (Future<Integer> f : pool.invokeAll(tasks))
+				sum += f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new RuntimeException(e.getCause());
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,99 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the elementary per pixel loops over pixel, label and mask arrays, kept
+// apart from any other per pixel logic: every loop is a counted loop over
+// one or two arrays without branches or calls in its body, the form in
+// which the JIT unrolls and vectorizes it (superword). comparisons are done
+// with sign bits instead of conditions. threshold tests produce whole
+// words of a SelectionMask, 64 pixels at a time.
+final class PixelKernels {
+
+	private PixelKernels() {
+	}
+
+	// smallest and largest unsigned value of pixels from <= i < to, as
+	// { min, max } (for an empty range { 0xffff, 0 })
+	static int[] minMax(short[] pixels, int from, int to) {
+		int min = 0xffff, max = 0;
+		for (int i = from; i < to; i++) {
+			final int v = pixels[i] & 0xffff;
+			min = Math.min(min, v);
+			max = Math.max(max, v);
+		}
+		return new int[] { min, max };
+	}
+
+	// bit b set if min <= pixels[offset + b] <= max, for the n <= 64 pixels
+	// from offset
+	static long thresholdWord(short[] pixels, int offset, int n, int min,
+			int max) {
+		long word = 0;
+		for (int b = 0; b < n; b++) {
+			final int v = pixels[offset + b] & 0xffff;
+			// negative if v < min or v > max
+			final int outside = (v - min) | (max - v);
+			word |= (long) (~outside >>> 31) << b;
+		}
+		return word;
+	}
+
+	// mask of the pixels of an image within [min, max]
+	static void threshold(short[] pixels, int width, int height, int min,
+			int max, SelectionMask result) {
+		final long[] words = result.words;
+		final int wpr = result.wordsPerRow;
+		for (int y = 0; y < height; y++) {
+			final int row = y * width;
+			for (int w = 0; w < wpr; w++) {
+				final int x = w << 6;
+				words[y * wpr + w] = thresholdWord(pixels, row + x,
+						Math.min(64, width - x), min, max);
+			}
+		}
+		result.includeAll();
+	}
+
+	// replace the labels from <= i < to that are equal to value by
+	// replacement, returns how many were replaced
+	static int replace(byte[] labels, int from, int to, byte value,
+			byte replacement) {
+		final int change = value ^ replacement;
+		int count = 0;
+		for (int i = from; i < to; i++) {
+			// zero exactly if equal, then -1 >>> 31 == 1
+			final int equal = (((labels[i] ^ value) & 0xff) - 1) >>> 31;
+			labels[i] ^= (byte) (change & -equal);
+			count += equal;
+		}
+		return count;
+	}
+
+	// a[i] |= b[i] for from <= i < to
+	static void or(long[] a, long[] b, int from, int to) {
+		for (int i = from; i < to; i++)
+			a[i] |= b[i];
+	}
+
+	// a[i] &= b[i] for from <= i < to
+	static void and(long[] a, long[] b, int from, int to) {
+		for (int i = from; i < to; i++)
+			a[i] &= b[i];
+	}
+
+	// a[i] &= ~b[i] for from <= i < to
+	static void andNot(long[] a, long[] b, int from, int to) {
+		for (int i = from; i < to; i++)
+			a[i] &= ~b[i];
+	}
+
+	// number of set bits in words from <= i < to
+	static int bitCount(long[] words, int from, int to) {
+		int count = 0;
+		for (int i = from; i < to; i++)
+			count += Long.bitCount(words[i]);
+		return count;
+	}
+}
@@ -0,0 +1,79 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// precomputed pixel neighborhood for an image of fixed size: every neighbor
+// is stored as an offset on the linear pixel index (plus its dx/dy for the
+// border). pixels at least "radius" away from the image border are interior
+// pixels, for them idx + offsets[i] is always valid and no bounds check is
+// needed. border pixels have to ask isValidNeighbor() first.
+public class PixelNeighborhoodTable {
+
+	// linear index offsets and relative coordinates of all neighbors
+	public final int[] offsets;
+	public final int[] dx, dy;
+
+	// largest |dx| or |dy| of all neighbors
+	public final int radius;
+
+	// image dimensions the offsets were computed for
+	public final int width, height;
+
+	private PixelNeighborhoodTable(int[] dx, int[] dy, int width, int height) {
+		this.dx = dx;
+		this.dy = dy;
+		this.width = width;
+		this.height = height;
+		this.offsets = new int[dx.length];
+		int r = 0;
+		for (int i = 0; i < dx.length; i++) {
+			offsets[i] = dx[i] + dy[i] * width;
+			r = Math.max(r, Math.max(Math.abs(dx[i]), Math.abs(dy[i])));
+		}
+		this.radius = r;
+	}
+
+	// table for the neighborhood sizes offered in the dialog: 4 direct
+	// neighbors in the order the growing always used them, or 8 with the
+	// diagonals
+	public static PixelNeighborhoodTable forSize(int neighSize, int width,
+			int height) {
+		return createStar(neighSize, width, height);
+	}
+
+	// the first numNeighbors pixels of the "star" sequence: 1 cycle = 8
+	// pixels around the given pixel (4 direct ones first, then the
+	// diagonals), further cycles repeat this at distance 2, 3, ...
+	public static PixelNeighborhoodTable createStar(int numNeighbors,
+			int width, int height) {
+		final int[] cycleX = { 1, 0, -1, 0, 1, 1, -1, -1 };
+		final int[] cycleY = { 0, 1, 0, -1, -1, 1, 1, -1 };
+		int[] dx = new int[numNeighbors];
+		int[] dy = new int[numNeighbors];
+		for (int i = 0; i < numNeighbors; i++) {
+			int n = (i / 8) + 1;
+			dx[i] = cycleX[i % 8] * n;
+			dy[i] = cycleY[i % 8] * n;
+		}
+		return new PixelNeighborhoodTable(dx, dy, width, height);
+	}
+
+	// query number of neighbors
+	public int numNeighbors() {
+		return offsets.length;
+	}
+
+	// true if all neighbors of (x,y) lie within the image
+	public boolean isInterior(int x, int y) {
+		return x >= radius && x < width - radius && y >= radius
+				&& y < height - radius;
+	}
+
+	// true if the i'th neighbor of (x,y) lies within the image
+	public boolean isValidNeighbor(int x, int y, int i) {
+		int nx = x + dx[i];
+		int ny = y + dy[i];
+		return nx >= 0 && nx < width && ny >= 0 && ny < height;
+	}
+}
@@ -1,7 +1,4 @@
-import java.util.Collection;
-import java.util.HashSet;
-import java.util.Queue;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 // algorithm that starts from a given pixel and 
 // finds all connected pixels that match some inclusion criteria
@@ -11,7 +8,8 @@ public class RegionGrowing {
 	public boolean useThresholdRange = true;
 	public int min_threshold, max_threshold;
 
-	// inclusion criterium 2: IGNORE, NOT USED
+	// inclusion criterium 2: gradient magnitude (see GradientMagnitude) at
+	// most gradientThreshold, so that growing stops at strong edges
 	public boolean useGradient = false;
 	public int gradientThreshold;
 
@@ -21,15 +19,76 @@ public class RegionGrowing {
 	// 4 or 8 pixels in the growing neighborhood?
 	public byte neighSize;
 
+	// which growing engine to use: the original queue based one, the
+	// allocation-free scanline (span) fill or the multi-core one. all yield
+	// the same selection.
+	public static final byte ENGINE_QUEUE = 0;
+	public static final byte ENGINE_SCANLINE = 1;
+	public static final byte ENGINE_PARALLEL = 2;
+	public byte engine;
+
+	// adaptive mode: instead of the threshold range, accept values within
+	// mean +- adaptiveSigma * sigma of the region grown so far, see
+	// AdaptiveRegionGrowing
+	public boolean useAdaptive = false;
+	public double adaptiveSigma = 2.5;
+
+	// answer from a component tree instead of growing, see ComponentTree.
+	// the tree is built for one of the two thresholds and reused as long as
+	// only the other one changes.
+	public boolean useComponentTree = false;
+
 	// all required info about the image to be processed
 	private short[] pixels;
 	private byte[] labels;
+
+	// gradient magnitude of pixels, computed on first use if not given
+	private short[] gradients;
 	int width, height;
 
+	// seed stack of the scanline engine and active front of the queue
+	// engine, kept between calls and only grown if a region needs more
+	private int[] spanStack = new int[1024];
+	private int[] activePixels = new int[0];
+
+	// visited marks of the queue, scanline and adaptive engines, reused by
+	// every call, and the nodes of the start pixel's neighbors in
+	// growFromTree(). after the first call, growing allocates nothing.
+	private VisitedMarks visited;
+	private final int[] treeNodes = new int[8];
+
+	// neighbor offsets for the current neighSize, rebuilt when it changes
+	private PixelNeighborhoodTable neighborhood;
+
+	// multi-core engine, created on first use
+	private ParallelRegionGrowing parallel;
+
+	// adaptive grower, created on first use
+	private AdaptiveRegionGrowing adaptive;
+
+	// grower for several seeds at once, created on first use
+	private MultiSeedRegionGrowing multiSeed;
+
+	// component tree, built on first use and when it no longer matches
+	private ComponentTree componentTree;
+	private int treeMinThreshold, treeMaxThreshold;
+
+	// instrumentation, see SegmentationMetrics. every visited pixel is
+	// selected, so the region size is also the number of visited pixels.
+	private static final SegmentationMetrics.Metric growTime = SegmentationMetrics
+			.timer("grow.time");
+	private static final SegmentationMetrics.Metric growPixels = SegmentationMetrics
+			.histogram("grow.pixels");
+	private static final SegmentationMetrics.Metric growQueueHighWater = SegmentationMetrics
+			.histogram("grow.queueHighWater");
+	private static final SegmentationMetrics.Metric growAllocation = SegmentationMetrics
+			.histogram("grow.allocatedBytes");
+	private static final SegmentationMetrics.Metric treeBuildTime = SegmentationMetrics
+			.timer("grow.treeBuild.time");
 
 	// constructor requires image dimensions as well as arrays for pixel values
 	// and labels.
-	// gradients are currently not used.
+	// gradients may be null, they are then computed when first needed.
 	RegionGrowing(int width, int height, short[] pixels, byte[] labels,
 			short[] gradients) {
 
@@ -38,16 +97,17 @@ public class RegionGrowing {
 
 		this.pixels = pixels;
 		this.labels = labels;
+		this.gradients = gradients;
 
 		this.min_threshold = 0;
 		this.max_threshold = 255 * 255;
 
 		this.neighSize = 4;
+		this.engine = ENGINE_QUEUE;
 
 		this.useThresholdRange = true;
 		this.stopAtOtherSegmentedRegions = true;
 
-		// NOT USED
 		this.gradientThreshold = 40;
 		this.useGradient = false;
 
@@ -57,81 +117,341 @@ public class RegionGrowing {
 	// all pixels belonging to the connected region will be set to "true" in the
 	// selection
 	// returns number of pixels in the identified region
-	public int grow(PixelInfo startPixel, boolean[] selection) {
+	public int grow(PixelInfo startPixel, SelectionMask selection) {
+		final long startTime = growTime.start();
+		final long allocated = SegmentationMetrics.allocatedBytes();
+
+		if (useGradient)
+			getGradients();
+
+		int countSelected;
+		if (useAdaptive) {
+			if (adaptive == null)
+				adaptive = new AdaptiveRegionGrowing(this);
+			countSelected = adaptive.grow(startPixel, selection,
+					adaptiveSigma, pixels, labels, gradients, getNeighborhood());
+		} else if (useComponentTree && useThresholdRange) {
+			countSelected = growFromTree(startPixel, selection);
+		} else if (engine == ENGINE_SCANLINE) {
+			countSelected = growScanline(startPixel, selection);
+		} else if (engine == ENGINE_PARALLEL) {
+			countSelected = growParallel(startPixel, selection);
+		} else {
+			countSelected = growQueue(startPixel, selection);
+		}
+
+		growTime.stop(startTime);
+		growPixels.record(countSelected);
+		SegmentationMetrics.recordAllocation(growAllocation, allocated);
+		return countSelected;
+	}
+
+	// original breadth-first growing. the active front is an int queue of
+	// pixel indices, neighbors come from the precomputed offset table.
+	private int growQueue(PixelInfo startPixel, SelectionMask selection) {
 
 		// how many pixels are contained in the image?
 		final int N = this.width * this.height;
 
-		// queue to represent "active front" of pixels to be processed
-		Queue<PixelInfo> activePixels = new LinkedList<PixelInfo>(); // active
-																		// front
+		// every pixel is queued at most once (+ the start pixel), so a plain
+		// array with head and tail is enough to represent the active front
+		if (activePixels.length < N + 1)
+			activePixels = new int[N + 1];
+		int head = 0, tail = 0;
 
-		// binary image to mark which pixels have already been visited
-		boolean[] visited = new boolean[N];
-		for (int i = 0; i < N; i++)
-			visited[i] = false;
+		// marks which pixels have already been visited
+		final VisitedMarks visited = startPass();
+
+		final PixelNeighborhoodTable neighborhood = getNeighborhood();
+		final int[] offsets = neighborhood.offsets;
 
 		// start the algorithm with just the start pixel in the active front
-		activePixels.offer(startPixel);
-		selection[startPixel.idx] = true;
+		activePixels[tail++] = startPixel.idx;
+		selection.set(startPixel.x, startPixel.y);
 
-		// count how many have been selected
+		// count how many have been selected, and the longest active front
 		int countSelected = 0;
+		int highWater = 1;
 
-		// calculate program running time for evaluation of growing algorithm
-		long startTime = System.currentTimeMillis();
-		
-		while (activePixels.peek() != null) {
-			PixelInfo pixel = activePixels.remove();
-			PixelNeighborhood neighborhood = null;
-			if (neighSize == 4) {
-				neighborhood = new PixelNeighborhood4();
-
-			} else if (neighSize == 8) {
-				neighborhood = new PixelNeighborhood8();
-			}
-			for (int i = 0; i < neighborhood.numNeighbors(); i++) {
-				PixelInfo n = neighborhood.getNeighbor(pixel, i, width, height);
-				if ((n.isValidIndex(width, height) && (shouldPixelBeIncluded(n)))
-						&& (!visited[n.idx])) {
-					// only go on if the checkbox isn't checked or it's not a labeled pixel
-					if ((stopAtOtherSegmentedRegions) && labels[n.idx] > 0
-							&& labels[n.idx] < 6) {
-					} else {
-					selection[n.idx] = true;
+		while (head < tail) {
+			final int idx = activePixels[head++];
+			final int x = idx % width;
+			final int y = idx / width;
+
+			// interior pixels need no bounds check for their neighbors
+			final boolean interior = neighborhood.isInterior(x, y);
+			for (int i = 0; i < offsets.length; i++) {
+				if (!interior && !neighborhood.isValidNeighbor(x, y, i))
+					continue;
+				final int n = idx + offsets[i];
+				final int nx = x + neighborhood.dx[i];
+				final int ny = y + neighborhood.dy[i];
+				// only go on if the checkbox isn't checked or it's not a
+				// labeled pixel
+				if (!visited.get(n) && isFillable(n)) {
+					selection.set(nx, ny);
 					countSelected++;
-					visited[n.idx] = true;
-					activePixels.offer(n);
+					visited.set(n);
+					activePixels[tail++] = n;
 				}
 			}
+			if (tail - head > highWater)
+				highWater = tail - head;
+
+		}
+		growQueueHighWater.record(highWater);
+
+		return countSelected;
+
+	}
+
+	// scanline (span) flood fill working directly on the pixel and label
+	// arrays. every filled row segment is found by walking left and right,
+	// the rows above and below are then scanned for new seed spans. the
+	// start pixel itself is selected but not tested, like in growQueue():
+	// the fill starts from each of its neighbors instead.
+	private int growScanline(PixelInfo startPixel, SelectionMask selection) {
+
+		final boolean diagonal = (neighSize == 8);
+
+		final VisitedMarks visited = startPass();
+
+		selection.set(startPixel.x, startPixel.y);
+		int countSelected = 0;
+
+		// seed the fill with every neighbor of the start pixel
+		final PixelNeighborhoodTable neighborhood = getNeighborhood();
+		int top = 0;
+		for (int i = 0; i < neighborhood.numNeighbors(); i++) {
+			if (neighborhood.isValidNeighbor(startPixel.x, startPixel.y, i)) {
+				top = push(top, startPixel.idx + neighborhood.offsets[i]);
 			}
+		}
+		int highWater = top;
+
+		while (top > 0) {
+			final int idx = spanStack[--top];
+			final int y = idx / width;
+			final int x = idx - y * width;
+			if (visited.get(idx) || !isFillable(idx))
+				continue;
 
+			// extend the span to the left and right within this row
+			final int rowStart = y * width;
+			int left = x;
+			while (left > 0 && !visited.get(rowStart + left - 1)
+					&& isFillable(rowStart + left - 1))
+				left--;
+			int right = x;
+			while (right < width - 1 && !visited.get(rowStart + right + 1)
+					&& isFillable(rowStart + right + 1))
+				right++;
+
+			visited.setRange(rowStart + left, rowStart + right + 1);
+			selection.setRange(y, left, right + 1);
+			countSelected += right - left + 1;
+
+			// with 8 neighbors, the spans above and below reach one pixel
+			// further on each side
+			int scanLeft = (diagonal && left > 0) ? left - 1 : left;
+			int scanRight = (diagonal && right < width - 1) ? right + 1 : right;
+			if (y > 0) {
+				top = pushSpans(top, y - 1, scanLeft, scanRight, visited);
+			}
+			if (y < height - 1) {
+				top = pushSpans(top, y + 1, scanLeft, scanRight, visited);
+			}
+			if (top > highWater)
+				highWater = top;
 		}
-		// how many have been selected? which neighborhood was used? 
-		if (neighSize == 4) {
-			System.out.println("4 Pixel Neighborhood was used");
-		} else if (neighSize == 8) {
-			System.out.println("8 Pixel Neighborhood was used");
+		growQueueHighWater.record(highWater);
+
+		return countSelected;
+	}
+
+	// connected components of all strips of the image in parallel, then
+	// merged; see ParallelRegionGrowing
+	private int growParallel(PixelInfo startPixel, SelectionMask selection) {
+		if (parallel == null)
+			parallel = new ParallelRegionGrowing(this);
+
+		return parallel.grow(startPixel, selection, getNeighborhood());
+	}
+
+	// the same selection as the engines, from the component tree: the
+	// region of the start pixel if it is fillable, else the regions of its
+	// fillable neighbors. the count excludes the start pixel unless it is
+	// reached from a neighbor, as in growQueue().
+	private int growFromTree(PixelInfo startPixel, SelectionMask selection) {
+		final ComponentTree tree = getComponentTree();
+		final int level = tree.level(min_threshold, max_threshold);
+
+		selection.set(startPixel.x, startPixel.y);
+		int node = tree.componentOf(startPixel.idx, level);
+		if (node >= 0) {
+			tree.select(node, selection);
+			int size = tree.getSize(node);
+			return (size > 1) ? size : 0;
+		}
+
+		final PixelNeighborhoodTable neighborhood = getNeighborhood();
+		final int[] nodes = treeNodes;
+		int numNodes = 0, countSelected = 0;
+		for (int i = 0; i < neighborhood.numNeighbors(); i++) {
+			if (!neighborhood.isValidNeighbor(startPixel.x, startPixel.y, i))
+				continue;
+			node = tree.componentOf(startPixel.idx + neighborhood.offsets[i],
+					level);
+			if (node < 0)
+				continue;
+			boolean seen = false;
+			for (int j = 0; j < numNodes; j++)
+				seen |= (nodes[j] == node);
+			if (!seen) {
+				nodes[numNodes++] = node;
+				tree.select(node, selection);
+				countSelected += tree.getSize(node);
+			}
 		}
-		
-		//how long did it take?
-		long endTime = System.currentTimeMillis();
-		long totalTime = endTime - startTime;
-		System.out.println("It took me " + totalTime + " milliseconds.");
+		return countSelected;
+	}
+
+	// a tree matching the current parameters. if neither threshold is the
+	// one of the current tree, the threshold that did not change since the
+	// last query is fixed: a min-tree if only max_threshold moves, else a
+	// max-tree.
+	private ComponentTree getComponentTree() {
+		ComponentTree tree = componentTree;
+		final int maxGradient = useGradient ? gradientThreshold : -1;
+		boolean matches = tree != null && tree.neighSize == neighSize
+				&& tree.stopAtLabels == stopAtOtherSegmentedRegions
+				&& tree.maxGradient == maxGradient
+				&& tree.bound == (tree.minTree ? min_threshold : max_threshold);
+		if (!matches) {
+			boolean minTree = (tree != null
+					&& min_threshold == treeMinThreshold && max_threshold != treeMaxThreshold);
+			// drop the old tree before building the new one
+			componentTree = tree = null;
+			final long startTime = treeBuildTime.start();
+			tree = ComponentTree.build(minTree, minTree ? min_threshold
+					: max_threshold, getNeighborhood(),
+					stopAtOtherSegmentedRegions, maxGradient, width, height,
+					pixels, labels, gradients);
+			treeBuildTime.stop(startTime);
+			componentTree = tree;
+		}
+		treeMinThreshold = min_threshold;
+		treeMaxThreshold = max_threshold;
+		return tree;
+	}
 
+	// grow from several labeled seeds at once, the regions compete for the
+	// pixels between them (see MultiSeedRegionGrowing). the pixels claimed
+	// by a label are set in regions[label].
+	// returns the number of claimed pixels, seeds included
+	public int growSeeds(int[] seeds, byte[] seedLabels,
+			SelectionMask[] regions) {
+		final long startTime = growTime.start();
+		if (useGradient)
+			getGradients();
+		if (multiSeed == null)
+			multiSeed = new MultiSeedRegionGrowing(this);
+		int countSelected = multiSeed.grow(seeds, seedLabels, regions, pixels,
+				getNeighborhood());
+		growTime.stop(startTime);
+		growPixels.record(countSelected);
 		return countSelected;
+	}
+
+	// all connected components of the pixels meeting the criteria, see
+	// ConnectedComponents
+	public ConnectedComponents findComponents() {
+		if (useGradient)
+			getGradients();
+		return ConnectedComponents.of(this);
+	}
+
+	// labels were changed: a tree that leaves out labeled pixels is outdated
+	public void labelsChanged() {
+		if (componentTree != null && componentTree.stopAtLabels)
+			componentTree = null;
+	}
 
+	// visited marks for a new pass, no pixel visited yet
+	VisitedMarks startPass() {
+		if (visited == null)
+			visited = new VisitedMarks(width * height);
+		visited.next();
+		return visited;
+	}
+
+	// offset table matching the current neighborhood size
+	private PixelNeighborhoodTable getNeighborhood() {
+		if (neighborhood == null || neighborhood.numNeighbors() != neighSize) {
+			neighborhood = PixelNeighborhoodTable.forSize(neighSize, width,
+					height);
+		}
+		return neighborhood;
+	}
+
+	// push one seed for each run of fillable pixels in row y, from <= x <= to
+	private int pushSpans(int top, int y, int from, int to,
+			VisitedMarks visited) {
+		final int rowStart = y * width;
+		boolean inRun = false;
+		for (int x = from; x <= to; x++) {
+			if (!visited.get(rowStart + x) && isFillable(rowStart + x)) {
+				if (!inRun) {
+					top = push(top, rowStart + x);
+					inRun = true;
+				}
+			} else {
+				inRun = false;
+			}
+		}
+		return top;
+	}
+
+	// push a pixel index onto the seed stack, growing it if necessary
+	private int push(int top, int idx) {
+		if (top == spanStack.length) {
+			spanStack = Arrays.copyOf(spanStack, spanStack.length * 2);
+		}
+		spanStack[top] = idx;
+		return top + 1;
 	}
 
 	// decide whether a pixel should be included or not
 	public boolean shouldPixelBeIncluded(PixelInfo pixel) {
-		int color = pixels[pixel.idx];
+		return shouldPixelBeIncluded(pixel.idx);
+	}
+
+	// same decision, directly on a pixel index
+	public boolean shouldPixelBeIncluded(int idx) {
+		int color = pixels[idx] & 0xffff;
 
 		// check for criteria: ThresholdRange activated, color within range;
 		// return
 		// value as inclusion decision
 		boolean colorWithinThresholdRange = (color >= min_threshold && color <= max_threshold);
-		return (this.useThresholdRange && colorWithinThresholdRange);
+		if (!(this.useThresholdRange && colorWithinThresholdRange))
+			return false;
+
+		// no strong edge at the pixel (gradients are there, see grow())
+		return !(useGradient && (gradients[idx] & 0xffff) > gradientThreshold);
 	}
-	
+
+	// gradient magnitude of the image, computed once
+	public short[] getGradients() {
+		if (gradients == null)
+			gradients = GradientMagnitude.compute(pixels, width, height);
+		return gradients;
+	}
+
+	// included by the criteria and not protected by another label
+	boolean isFillable(int idx) {
+		return shouldPixelBeIncluded(idx)
+				&& !(stopAtOtherSegmentedRegions && labels[idx] != 0);
+	}
+
 }
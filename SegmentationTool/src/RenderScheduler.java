@@ -0,0 +1,149 @@
+import java.awt.Rectangle;
+import java.lang.reflect.InvocationTargetException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.SwingUtilities;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// renders the output image on a worker thread instead of the Swing event
+// thread. requests coalesce: while a frame is rendered, newer requests only
+// replace the pending one, so a burst of slider events results in one
+// frame with the latest state. a request also cancels a frame that is still
+// being composited. a request captures, on the event thread, its own copy
+// of labels and selection within the region to render (see
+// OverlayRenderer.capture), together with the regions of the requests it
+// supersedes or cancels. the worker renders only from that copy into its
+// own frame buffer and publishes the region to the display on the event
+// thread, in one step. so every published region shows labels and
+// selection exactly as they were at one request, never a mix of states
+// before and after a change, and once the frame of the latest request is
+// published the display shows the state at that request.
+class RenderScheduler {
+
+	// receives finished frames on the event thread
+	interface Display {
+		void show(int[] frame, Rectangle changed);
+	}
+
+	private final OverlayRenderer renderer;
+	private final Display display;
+	private final int[] frame;
+
+	// single worker thread, ends when idle for a while
+	private final ThreadPoolExecutor worker;
+
+	// latest request not yet started, and the running one with its cancel
+	// flag
+	private final Object lock = new Object();
+	private OverlayRenderer.Parameters pending;
+	private boolean scheduled = false;
+	private OverlayRenderer.Parameters rendering;
+	private AtomicBoolean running;
+
+	// frame must hold the current content of the display
+	RenderScheduler(OverlayRenderer renderer, int[] frame, Display display) {
+		this.renderer = renderer;
+		this.frame = frame;
+		this.display = display;
+		this.worker = new ThreadPoolExecutor(1, 1, 10, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Segmentation render");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		this.worker.allowCoreThreadTimeOut(true);
+	}
+
+	// render a frame for the live state p as soon as possible, superseding
+	// older requests (called on the event thread)
+	void request(OverlayRenderer.Parameters live) {
+		synchronized (lock) {
+			// the regions of the superseded and the cancelled request are
+			// rendered from the new copy
+			Rectangle carried = null;
+			if (pending != null)
+				carried = pending.region;
+			if (rendering != null)
+				carried = (carried == null) ? rendering.region : carried
+						.union(rendering.region);
+			OverlayRenderer.Parameters p = renderer.capture(live, carried);
+			if (p == null)
+				return;
+			pending = p;
+			if (running != null)
+				running.set(true);
+			if (!scheduled) {
+				scheduled = true;
+				worker.execute(new Runnable() {
+					public void run() {
+						renderPending();
+					}
+				});
+			}
+		}
+	}
+
+	// worker loop: render the latest request until none is left
+	private void renderPending() {
+		while (true) {
+			OverlayRenderer.Parameters p;
+			AtomicBoolean cancel;
+			synchronized (lock) {
+				p = pending;
+				pending = null;
+				if (p == null) {
+					scheduled = false;
+					rendering = null;
+					running = null;
+					return;
+				}
+				rendering = p;
+				cancel = running = new AtomicBoolean(false);
+			}
+			Rectangle changed = renderer.render(p, frame, cancel);
+			if (changed == null)
+				continue;
+			synchronized (lock) {
+				// rendered completely, a later request need not carry it
+				rendering = null;
+			}
+			publish(changed);
+		}
+	}
+
+	// hand the changed region to the display; the worker waits, so the
+	// frame is not touched while the display copies it
+	private void publish(final Rectangle changed) {
+		try {
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run() {
+					display.show(frame, changed);
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException(e.getCause());
+		}
+	}
+
+	// stop the worker, pending requests are dropped
+	void shutdown() {
+		synchronized (lock) {
+			pending = null;
+			if (running != null)
+				running.set(true);
+		}
+		worker.shutdown();
+	}
+}
@@ -0,0 +1,132 @@
+import java.awt.Polygon;
+
+import ij.IJ;
+import ij.ImagePlus;
+import ij.ImageStack;
+import ij.gui.GenericDialog;
+import ij.gui.Roi;
+import ij.plugin.filter.PlugInFilter;
+import ij.process.ImageProcessor;
+
+// a filter for volumetric segmentation of 16 bit image stacks: grows the
+// region around a seed point through all slices and shows the result as a
+// label stack
+public class Segmentation3D_16Bit implements PlugInFilter {
+
+	// values for the voxel connectivity
+	public final static String[] connectivityMenu = new String[] {
+			"6 (faces)", "18 (faces+edges)", "26 (all)" };
+	public final static int[] connectivityValues = new int[] { 6, 18, 26 };
+
+	// morphology applied to the grown region
+	public final static String[] morphologyMenu = new String[] { "none",
+			"dilate", "erode", "open", "close" };
+
+	// input image (stack)
+	private ImagePlus inputImage;
+
+	// this method is called to check which types of images this plugin accepts
+	@Override
+	public int setup(String arg, ImagePlus imp) {
+
+		// remember the input image
+		inputImage = imp;
+
+		// this filter only does 16 bit stacks, and does not change the
+		// original image
+		return DOES_16 + STACK_REQUIRED + NO_CHANGES;
+	}
+
+	// this method is called when the plugin is applied through the ImageJ UI
+	@Override
+	public void run(ImageProcessor ip) {
+
+		// the seed is the first point of the current ROI on the current slice
+		Roi roi = inputImage.getRoi();
+		if (roi == null || roi.getPolygon().npoints == 0) {
+			IJ.error("Segmentation 3D",
+					"Please mark a seed point (point tool) in the vessel to segment.");
+			return;
+		}
+		Polygon seed = roi.getPolygon();
+		final int seedX = seed.xpoints[0];
+		final int seedY = seed.ypoints[0];
+		final int seedZ = inputImage.getCurrentSlice() - 1;
+
+		// collect the slices of the stack
+		ImageStack stack = inputImage.getStack();
+		final int width = stack.getWidth();
+		final int height = stack.getHeight();
+		final int depth = stack.getSize();
+		short[][] voxels = new short[depth][];
+		byte[][] labels = new byte[depth][];
+		int min_value = 0xffff, max_value = 0;
+		for (int z = 0; z < depth; z++) {
+			voxels[z] = (short[]) stack.getPixels(z + 1);
+			labels[z] = new byte[width * height];
+			int[] range = PixelKernels.minMax(voxels[z], 0, voxels[z].length);
+			min_value = Math.min(min_value, range[0]);
+			max_value = Math.max(max_value, range[1]);
+		}
+
+		// ask for the parameters
+		GenericDialog gd = new GenericDialog("Segmentation 3D");
+		gd.addMessage("Voxel values: min=" + min_value + " max=" + max_value);
+		gd.addNumericField("Min threshold:", min_value, 0);
+		gd.addNumericField("Max threshold:", max_value, 0);
+		gd.addChoice("Connectivity:", connectivityMenu, connectivityMenu[0]);
+		gd.addChoice("Morphology:", morphologyMenu, morphologyMenu[0]);
+		gd.addNumericField("Kernel size:", 3, 0);
+		gd.addNumericField("Label:", 1, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		StackVolume volume = new StackVolume(width, height, voxels, labels);
+		VolumeRegionGrowing grower = new VolumeRegionGrowing(volume, volume);
+		grower.min_threshold = (int) gd.getNextNumber();
+		grower.max_threshold = (int) gd.getNextNumber();
+		grower.connectivity = connectivityValues[gd.getNextChoiceIndex()];
+		final int morphology = gd.getNextChoiceIndex();
+		int kernel_size = Math.max(1, (int) gd.getNextNumber());
+		if (kernel_size % 2 == 0)
+			kernel_size++;
+		final byte labelIndex = (byte) Math.max(1,
+				Math.min(255, (int) gd.getNextNumber()));
+
+		// grow through the volume
+		IJ.showStatus("Segmentation 3D: growing...");
+		long startTime = System.currentTimeMillis();
+		SelectionMask[] selection = new SelectionMask[depth];
+		for (int z = 0; z < depth; z++)
+			selection[z] = new SelectionMask(width, height);
+		int count = grower.grow(seedX, seedY, seedZ, selection);
+
+		// optional 3D morphology on the grown region
+		switch (morphology) {
+		case 1:
+			selection = Morphology.dilate(selection, kernel_size);
+			break;
+		case 2:
+			selection = Morphology.erode(selection, kernel_size);
+			break;
+		case 3:
+			selection = Morphology.open(selection, kernel_size);
+			break;
+		case 4:
+			selection = Morphology.close(selection, kernel_size);
+			break;
+		}
+
+		// write the region into the label volume and show it
+		grower.saveSelectionAsLabel(selection, labelIndex & 0xff);
+		ImageStack labelStack = new ImageStack(width, height);
+		for (int z = 0; z < depth; z++)
+			labelStack.addSlice(null, volume.getLabelSlice(z));
+		long totalTime = System.currentTimeMillis() - startTime;
+		IJ.showStatus("Segmentation 3D: " + count + " voxels in " + totalTime
+				+ " ms");
+
+		new ImagePlus("Labels of " + inputImage.getTitle(), labelStack).show();
+	}
+}
@@ -0,0 +1,101 @@
+import java.io.File;
+import java.io.IOException;
+
+import ij.IJ;
+import ij.gui.GenericDialog;
+import ij.plugin.PlugIn;
+
+// volumetric segmentation of raw 16 bit volumes that do not fit onto the
+// heap: voxels and labels are memory mapped brick files (see MappedVolume),
+// the labels are written back into the label file next to the raw file
+public class Segmentation3D_Mapped implements PlugIn {
+
+	// this method is called when the plugin is applied through the ImageJ UI
+	@Override
+	public void run(String arg) {
+
+		// ask for the raw file, its layout and the growing parameters
+		GenericDialog gd = new GenericDialog("Segmentation 3D (mapped)");
+		gd.addStringField("Raw file:", "");
+		gd.addNumericField("Header bytes:", 0, 0);
+		gd.addNumericField("Width:", 512, 0);
+		gd.addNumericField("Height:", 512, 0);
+		gd.addNumericField("Slices:", 1, 0);
+		gd.addCheckbox("Big endian", false);
+		gd.addNumericField("Seed x:", 0, 0);
+		gd.addNumericField("Seed y:", 0, 0);
+		gd.addNumericField("Seed slice:", 1, 0);
+		gd.addNumericField("Min threshold:", 0, 0);
+		gd.addNumericField("Max threshold:", 0xffff, 0);
+		gd.addChoice("Connectivity:", Segmentation3D_16Bit.connectivityMenu,
+				Segmentation3D_16Bit.connectivityMenu[0]);
+		gd.addNumericField("Label:", 1, 0);
+		gd.showDialog();
+		if (gd.wasCanceled())
+			return;
+
+		File rawFile = new File(gd.getNextString());
+		final long headerBytes = (long) gd.getNextNumber();
+		final int width = (int) gd.getNextNumber();
+		final int height = (int) gd.getNextNumber();
+		final int depth = (int) gd.getNextNumber();
+		final boolean bigEndian = gd.getNextBoolean();
+		final int seedX = (int) gd.getNextNumber();
+		final int seedY = (int) gd.getNextNumber();
+		final int seedZ = (int) gd.getNextNumber() - 1;
+		final int min_threshold = (int) gd.getNextNumber();
+		final int max_threshold = (int) gd.getNextNumber();
+		final int connectivity = Segmentation3D_16Bit.connectivityValues[gd
+				.getNextChoiceIndex()];
+		final int labelIndex = Math.max(1,
+				Math.min(255, (int) gd.getNextNumber()));
+
+		if (seedX < 0 || seedX >= width || seedY < 0 || seedY >= height
+				|| seedZ < 0 || seedZ >= depth) {
+			IJ.error("Segmentation 3D", "The seed lies outside of the volume.");
+			return;
+		}
+
+		// the brick files are kept next to the raw file and reused if they
+		// were imported completely from it, unchanged and with the same
+		// parameters, otherwise imported again
+		File voxelFile = new File(rawFile.getPath() + ".bricks");
+		File labelFile = new File(rawFile.getPath() + ".labels");
+		MappedVolume volume;
+		try {
+			if (MappedVolume.isImported(rawFile, headerBytes, bigEndian,
+					width, height, depth, voxelFile)) {
+				volume = MappedVolume.open(rawFile, headerBytes, bigEndian,
+						width, height, depth, voxelFile, labelFile);
+			} else {
+				IJ.showStatus("Segmentation 3D: converting to bricks...");
+				volume = MappedVolume.importRaw(rawFile, headerBytes,
+						bigEndian, width, height, depth, voxelFile, labelFile);
+			}
+		} catch (IOException e) {
+			IJ.error("Segmentation 3D", "Could not map the volume: "
+					+ e.getMessage());
+			return;
+		}
+
+		VolumeRegionGrowing grower = new VolumeRegionGrowing(volume, volume);
+		grower.min_threshold = min_threshold;
+		grower.max_threshold = max_threshold;
+		grower.connectivity = connectivity;
+
+		// only the selection (1 bit per voxel) is held on the heap, and only
+		// for the slices the region reaches
+		IJ.showStatus("Segmentation 3D: growing...");
+		long startTime = System.currentTimeMillis();
+		SelectionMask[] selection = new SelectionMask[depth];
+		int count = grower.grow(seedX, seedY, seedZ, selection);
+
+		grower.clearLabel(labelIndex);
+		grower.saveSelectionAsLabel(selection, labelIndex);
+		volume.flush();
+
+		long totalTime = System.currentTimeMillis() - startTime;
+		IJ.showStatus("Segmentation 3D: " + count + " voxels in " + totalTime
+				+ " ms, labels in " + labelFile.getName());
+	}
+}
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// registry of the counters, timers and histograms of the hot paths
+// (growing, morphology, rendering). recording is a few atomic operations,
+// so it stays on in production; -Dsegmentation.metrics=false turns it off.
+// every metric is an MBean "SegmentationTool:type=<kind>,name=<name>"
+// (jconsole, VisualVM), and -Dsegmentation.metrics.dump=<file> writes all
+// metrics every -Dsegmentation.metrics.interval seconds (default 60):
+// as JSON if the file name ends with .json (overwritten), else as CSV
+// (one line per metric and dump, appended).
+public final class SegmentationMetrics {
+
+	public static final boolean ENABLED = !"false".equalsIgnoreCase(System
+			.getProperty("segmentation.metrics"));
+
+	// the JMX view of a metric
+	public interface MetricMBean {
+		String getKind();
+
+		long getCount();
+
+		long getSum();
+
+		long getMax();
+
+		double getMean();
+
+		// upper bound of the log2 bucket containing the percentile
+		long getPercentile50();
+
+		long getPercentile99();
+
+		void reset();
+	}
+
+	// a counter (number of add() calls and sum of the amounts), a histogram
+	// of recorded values or a timer (histogram of nanoseconds). values are
+	// put into 64 buckets by their highest bit, which is enough for
+	// percentiles of times and sizes.
+	public static final class Metric implements MetricMBean {
+		private final String name, kind;
+		private final AtomicLong count = new AtomicLong();
+		private final AtomicLong sum = new AtomicLong();
+		private final AtomicLong max = new AtomicLong();
+		private final AtomicLongArray buckets;
+
+		Metric(String name, String kind, boolean histogram) {
+			this.name = name;
+			this.kind = kind;
+			this.buckets = histogram ? new AtomicLongArray(64) : null;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		// counters: add n
+		public void add(long n) {
+			if (!ENABLED)
+				return;
+			count.incrementAndGet();
+			sum.addAndGet(n);
+		}
+
+		public void increment() {
+			add(1);
+		}
+
+		// histograms: record one value (negative values count as 0)
+		public void record(long value) {
+			if (!ENABLED)
+				return;
+			if (value < 0)
+				value = 0;
+			count.incrementAndGet();
+			sum.addAndGet(value);
+			long m;
+			while (value > (m = max.get()) && !max.compareAndSet(m, value))
+				;
+			if (buckets != null)
+				buckets.incrementAndGet(bucket(value));
+		}
+
+		// index of the highest set bit + 1, 0 for 0
+		private static int bucket(long value) {
+			return (64 - Long.numberOfLeadingZeros(value)) & 63;
+		}
+
+		// timers: start() before, stop(start) after the operation
+		public long start() {
+			return ENABLED ? System.nanoTime() : 0;
+		}
+
+		public void stop(long start) {
+			if (ENABLED)
+				record(System.nanoTime() - start);
+		}
+
+		public String getKind() {
+			return kind;
+		}
+
+		public long getCount() {
+			return count.get();
+		}
+
+		public long getSum() {
+			return sum.get();
+		}
+
+		public long getMax() {
+			return max.get();
+		}
+
+		public double getMean() {
+			long n = count.get();
+			return (n == 0) ? 0 : (double) sum.get() / n;
+		}
+
+		public long getPercentile50() {
+			return percentile(0.5);
+		}
+
+		public long getPercentile99() {
+			return percentile(0.99);
+		}
+
+		private long percentile(double p) {
+			if (buckets == null)
+				return 0;
+			long total = 0;
+			for (int i = 0; i < 64; i++)
+				total += buckets.get(i);
+			if (total == 0)
+				return 0;
+			long rank = (long) Math.ceil(p * total), seen = 0;
+			for (int i = 0; i < 64; i++) {
+				seen += buckets.get(i);
+				if (seen >= rank)
+					return (i == 0) ? 0 : Math.min(max.get(), (1L << i) - 1);
+			}
+			return max.get();
+		}
+
+		public void reset() {
+			count.set(0);
+			sum.set(0);
+			max.set(0);
+			if (buckets != null) {
+				for (int i = 0; i < 64; i++)
+					buckets.set(i, 0);
+			}
+		}
+	}
+
+	private static final ConcurrentMap<String, Metric> metrics = new ConcurrentHashMap<String, Metric>();
+
+	// allocation counter of the current thread, if the VM has one
+	private static final com.sun.management.ThreadMXBean allocations;
+
+	static {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		com.sun.management.ThreadMXBean a = null;
+		if (ENABLED && threads instanceof com.sun.management.ThreadMXBean) {
+			a = (com.sun.management.ThreadMXBean) threads;
+			if (!a.isThreadAllocatedMemorySupported()
+					|| !a.isThreadAllocatedMemoryEnabled())
+				a = null;
+		}
+		allocations = a;
+		startDump();
+	}
+
+	private SegmentationMetrics() {
+	}
+
+	public static Metric counter(String name) {
+		return get(name, "Counter", false);
+	}
+
+	public static Metric histogram(String name) {
+		return get(name, "Histogram", true);
+	}
+
+	public static Metric timer(String name) {
+		return get(name, "Timer", true);
+	}
+
+	private static Metric get(String name, String kind, boolean histogram) {
+		Metric m = metrics.get(name);
+		if (m == null) {
+			Metric created = new Metric(name, kind, histogram);
+			m = metrics.putIfAbsent(name, created);
+			if (m == null) {
+				m = created;
+				register(m);
+			}
+		}
+		return m;
+	}
+
+	private static void register(Metric m) {
+		if (!ENABLED)
+			return;
+		try {
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			server.registerMBean(new StandardMBean(m, MetricMBean.class),
+					new ObjectName("SegmentationTool:type=" + m.kind
+							+ ",name=" + ObjectName.quote(m.name)));
+		} catch (JMException e) {
+			// not visible through JMX, still recorded and dumped
+		}
+	}
+
+	// bytes allocated by the current thread so far, -1 if unknown. the
+	// difference around an operation is its allocation.
+	public static long allocatedBytes() {
+		return (allocations != null) ? allocations
+				.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+	}
+
+	// record the allocation of the current thread since allocatedBefore
+	public static void recordAllocation(Metric histogram, long allocatedBefore) {
+		if (allocatedBefore >= 0)
+			histogram.record(allocatedBytes() - allocatedBefore);
+	}
+
+	// snapshot of all metrics, sorted by name
+	public static List<Metric> getMetrics() {
+		List<Metric> list = new ArrayList<Metric>(metrics.values());
+		Collections.sort(list, new Comparator<Metric>() {
+			public int compare(Metric a, Metric b) {
+				return a.name.compareTo(b.name);
+			}
+		});
+		return list;
+	}
+
+	// periodic dump configured by system properties
+	private static void startDump() {
+		String path = System.getProperty("segmentation.metrics.dump");
+		if (!ENABLED || path == null || path.isEmpty())
+			return;
+		final File file = new File(path);
+		long interval = 60;
+		try {
+			interval = Math.max(1, Long.parseLong(System.getProperty(
+					"segmentation.metrics.interval", "60")));
+		} catch (NumberFormatException e) {
+			// keep the default
+		}
+		ScheduledExecutorService timer = Executors
+				.newSingleThreadScheduledExecutor(new ThreadFactory() {
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "Segmentation metrics");
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		timer.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				try {
+					dump(file);
+				} catch (IOException e) {
+					// try again next time
+				}
+			}
+		}, interval, interval, TimeUnit.SECONDS);
+	}
+
+	// write all metrics to file, JSON or CSV depending on the file name
+	public static void dump(File file) throws IOException {
+		boolean json = file.getName().toLowerCase().endsWith(".json");
+		boolean header = !json && !file.exists();
+		Writer out = new OutputStreamWriter(new FileOutputStream(file, !json),
+				"UTF-8");
+		try {
+			long now = System.currentTimeMillis();
+			if (json) {
+				out.write("{\"timestamp\":" + now + ",\"metrics\":[");
+			} else if (header) {
+				out.write("timestamp,name,kind,count,sum,max,mean,p50,p99\n");
+			}
+			boolean first = true;
+			for (Metric m : getMetrics()) {
+				if (json) {
+					out.write(String.format(Locale.ROOT, "%s\n{\"name\":\"%s\","
+							+ "\"kind\":\"%s\",\"count\":%d,\"sum\":%d,"
+							+ "\"max\":%d,\"mean\":%.3f,\"p50\":%d,\"p99\":%d}",
+							first ? "" : ",", m.name.replace("\"", "\\\""),
+							m.kind, m.getCount(), m.getSum(), m.getMax(),
+							m.getMean(), m.getPercentile50(),
+							m.getPercentile99()));
+				} else {
+					out.write(String.format(Locale.ROOT,
+							"%d,%s,%s,%d,%d,%d,%.3f,%d,%d\n", now, m.name,
+							m.kind, m.getCount(), m.getSum(), m.getMax(),
+							m.getMean(), m.getPercentile50(),
+							m.getPercentile99()));
+				}
+				first = false;
+			}
+			if (json)
+				out.write("\n]}\n");
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the parameters of a segmentation that is run without the dialog (see
+// BatchSegmentation), read from a text file with one setting per line:
+//
+// threshold 200 1400 # pixel value range to grow into
+// adaptive 2.5 # instead: grow into mean +- 2.5 sigma of the region
+// neighborhood 8 # 4 or 8 pixel neighborhood
+// engine scanline # queue, scanline or parallel
+// stop_at_labels true # do not grow into regions of earlier seeds
+// gradient 300 # stop at pixels with a stronger gradient magnitude
+// dilate 3 # morphology applied to each grown region, in
+// close 5 # order: erode, dilate, open or close, kernel size
+// seed 120 240 1 # seed x y, label the region is saved as
+// [study-017.dcm] # the following seeds only for this file
+// seed 80 90 2
+//
+// seeds before the first [file] section are used for every image, the
+// seeds of a section in addition for the file of that name. seeds are
+// processed in order, each region is saved before the next one is grown.
+public class SegmentationProtocol {
+
+	// morphology operations
+	public static final int ERODE = 0, DILATE = 1, OPEN = 2, CLOSE = 3;
+	static final String[] morphologyNames = { "erode", "dilate", "open",
+			"close" };
+
+	// a seed point and the label of the region grown from it
+	public static class Seed {
+		public final int x, y, label;
+
+		Seed(int x, int y, int label) {
+			this.x = x;
+			this.y = y;
+			this.label = label;
+		}
+	}
+
+	// a morphology operation with its kernel size
+	public static class Step {
+		public final int operation, kernelSize;
+
+		Step(int operation, int kernelSize) {
+			this.operation = operation;
+			this.kernelSize = kernelSize;
+		}
+	}
+
+	// growing parameters, same meaning as in RegionGrowing
+	public boolean useThresholdRange = false;
+	public int min_threshold = 0, max_threshold = 0xffff;
+	public byte neighSize = 4;
+	public byte engine = RegionGrowing.ENGINE_SCANLINE;
+	public boolean stopAtOtherSegmentedRegions = true;
+	public boolean useGradient = false;
+	public int gradientThreshold = 0;
+	public boolean useAdaptive = false;
+	public double adaptiveSigma = 2.5;
+
+	// morphology applied to every grown region
+	public final List<Step> steps = new ArrayList<Step>();
+
+	// seeds for all files, and per file name
+	private final List<Seed> seeds = new ArrayList<Seed>();
+	private final Map<String, List<Seed>> fileSeeds = new HashMap<String, List<Seed>>();
+
+	// read a protocol file, errors name the offending line
+	public static SegmentationProtocol read(File file) throws IOException {
+		Reader in = new InputStreamReader(new FileInputStream(file), "UTF-8");
+		try {
+			return read(in, file.getName());
+		} finally {
+			in.close();
+		}
+	}
+
+	static SegmentationProtocol read(Reader reader, String name)
+			throws IOException {
+		SegmentationProtocol protocol = new SegmentationProtocol();
+		BufferedReader in = new BufferedReader(reader);
+		List<Seed> currentSeeds = protocol.seeds;
+		String line;
+		int lineNumber = 0;
+		while ((line = in.readLine()) != null) {
+			lineNumber++;
+			int comment = line.indexOf('#');
+			if (comment >= 0)
+				line = line.substring(0, comment);
+			line = line.trim();
+			if (line.isEmpty())
+				continue;
+			String where = name + ", line " + lineNumber + ": ";
+
+			// start of the seeds for one file
+			if (line.startsWith("[")) {
+				if (!line.endsWith("]") || line.length() < 3)
+					throw new IOException(where + "invalid file section "
+							+ line);
+				String file = line.substring(1, line.length() - 1).trim();
+				currentSeeds = protocol.fileSeeds.get(file);
+				if (currentSeeds == null) {
+					currentSeeds = new ArrayList<Seed>();
+					protocol.fileSeeds.put(file, currentSeeds);
+				}
+				continue;
+			}
+
+			String[] tokens = line.split("\\s+");
+			String key = tokens[0].toLowerCase();
+			try {
+				if (key.equals("seed")) {
+					expect(tokens, 4, where);
+					int label = Integer.parseInt(tokens[3]);
+					if (label < 1 || label > 255)
+						throw new IOException(where
+								+ "label must be within 1..255");
+					currentSeeds.add(new Seed(Integer.parseInt(tokens[1]),
+							Integer.parseInt(tokens[2]), label));
+				} else if (currentSeeds != protocol.seeds) {
+					throw new IOException(where
+							+ "only seeds may follow a file section");
+				} else if (key.equals("threshold")) {
+					expect(tokens, 3, where);
+					protocol.useThresholdRange = true;
+					protocol.min_threshold = Integer.parseInt(tokens[1]);
+					protocol.max_threshold = Integer.parseInt(tokens[2]);
+				} else if (key.equals("neighborhood")) {
+					expect(tokens, 2, where);
+					int n = Integer.parseInt(tokens[1]);
+					if (n != 4 && n != 8)
+						throw new IOException(where
+								+ "neighborhood must be 4 or 8");
+					protocol.neighSize = (byte) n;
+				} else if (key.equals("engine")) {
+					expect(tokens, 2, where);
+					protocol.engine = parseEngine(tokens[1], where);
+				} else if (key.equals("adaptive")) {
+					expect(tokens, 2, where);
+					protocol.useAdaptive = true;
+					protocol.adaptiveSigma = Double.parseDouble(tokens[1]);
+					if (!(protocol.adaptiveSigma > 0))
+						throw new IOException(where
+								+ "adaptive range must be positive");
+				} else if (key.equals("gradient")) {
+					expect(tokens, 2, where);
+					protocol.useGradient = true;
+					protocol.gradientThreshold = Integer.parseInt(tokens[1]);
+					if (protocol.gradientThreshold < 0)
+						throw new IOException(where
+								+ "gradient threshold must not be negative");
+				} else if (key.equals("stop_at_labels")) {
+					expect(tokens, 2, where);
+					protocol.stopAtOtherSegmentedRegions = Boolean
+							.parseBoolean(tokens[1]);
+				} else {
+					int operation = indexOf(morphologyNames, key);
+					if (operation < 0)
+						throw new IOException(where + "unknown setting "
+								+ tokens[0]);
+					expect(tokens, 2, where);
+					int kernelSize = Integer.parseInt(tokens[1]);
+					if (kernelSize < 1 || kernelSize % 2 == 0)
+						throw new IOException(where
+								+ "kernel size must be odd and positive");
+					protocol.steps.add(new Step(operation, kernelSize));
+				}
+			} catch (NumberFormatException e) {
+				throw new IOException(where + "not a number: "
+						+ e.getMessage());
+			}
+		}
+		if (!protocol.useThresholdRange && !protocol.useAdaptive)
+			throw new IOException(name + ": no threshold or adaptive given");
+		return protocol;
+	}
+
+	private static void expect(String[] tokens, int count, String where)
+			throws IOException {
+		if (tokens.length != count)
+			throw new IOException(where + tokens[0] + " expects "
+					+ (count - 1) + " value(s)");
+	}
+
+	private static byte parseEngine(String name, String where)
+			throws IOException {
+		String[] names = { "queue", "scanline", "parallel" };
+		byte[] engines = { RegionGrowing.ENGINE_QUEUE,
+				RegionGrowing.ENGINE_SCANLINE, RegionGrowing.ENGINE_PARALLEL };
+		int i = indexOf(names, name.toLowerCase());
+		if (i < 0)
+			throw new IOException(where + "unknown engine " + name);
+		return engines[i];
+	}
+
+	private static int indexOf(String[] names, String name) {
+		for (int i = 0; i < names.length; i++) {
+			if (names[i].equals(name))
+				return i;
+		}
+		return -1;
+	}
+
+	// all seeds for the file of the given name
+	public List<Seed> getSeeds(String fileName) {
+		List<Seed> result = new ArrayList<Seed>(seeds);
+		List<Seed> own = fileSeeds.get(fileName);
+		if (own != null)
+			result.addAll(own);
+		return result;
+	}
+}
@@ -0,0 +1,378 @@
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// a saved segmentation: the labels of every slice together with the
+// parameters they were made with (window, thresholds, gradient criterion,
+// adaptive mode, neighborhood, engine, label names and colors).
+//
+// file format (big endian):
+// magic "SEGS", version (short), reserved (short)
+// header length (int), header, CRC32 of the header (int)
+// per slice: offset (long), stored length (int), CRC32 of the stored
+// bytes (int)
+// the slices: deflated runs of equal labels, (label byte, run length as
+// variable length integer) pairs
+//
+// the slices are compressed and decompressed in parallel and written and
+// read through one file channel, every slice found through the offset
+// table. sizes are checked against the file before anything is allocated
+// for them.
+class SegmentationSession {
+
+	static final int MAGIC = 0x53454753; // "SEGS"
+	static final short VERSION = 1;
+
+	// file name extension used by the dialog
+	static final String EXTENSION = ".seg";
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	// image size, depth is 1 for a single image
+	int width, height, depth;
+
+	// display window and growing parameters
+	int window_center, window_width;
+	int min_threshold, max_threshold;
+	boolean useThresholdRange, stopAtOtherSegmentedRegions;
+	boolean useGradient;
+	int gradientThreshold;
+	boolean useAdaptive;
+	double adaptiveSigma;
+	byte neighSize, engine;
+
+	String[] labelNames = new String[0];
+	int[] labelColors = new int[0];
+
+	// labels of every slice (width * height each)
+	byte[][] labels;
+
+	// --- writing ---
+
+	// write the session to file, through a temporary file that replaces it
+	// when complete
+	void write(Path file) throws IOException {
+		final byte[][] stored = new byte[depth][];
+		List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+		for (int z = 0; z < depth; z++) {
+			final int slice = z;
+			tasks.add(new Callable<Integer>() {
+				public Integer call() {
+					stored[slice] = deflate(encodeRuns(labels[slice]));
+					return 0;
+				}
+			});
+		}
+		ParallelRegionGrowing.runAll(tasks);
+
+		ByteBuffer header = encodeHeader();
+		ByteBuffer start = ByteBuffer.allocate(12);
+		start.putInt(MAGIC).putShort(VERSION).putShort((short) 0)
+				.putInt(header.remaining()).flip();
+		ByteBuffer headerCrc = ByteBuffer.allocate(4);
+		headerCrc.putInt(crc(header.array(), 0, header.remaining())).flip();
+
+		long offset = 12 + header.remaining() + 4 + 16L * depth;
+		ByteBuffer table = ByteBuffer.allocate(16 * depth);
+		for (int z = 0; z < depth; z++) {
+			table.putLong(offset).putInt(stored[z].length)
+					.putInt(crc(stored[z], 0, stored[z].length));
+			offset += stored[z].length;
+		}
+		table.flip();
+
+		ByteBuffer[] buffers = new ByteBuffer[4 + depth];
+		buffers[0] = start;
+		buffers[1] = header;
+		buffers[2] = headerCrc;
+		buffers[3] = table;
+		for (int z = 0; z < depth; z++)
+			buffers[4 + z] = ByteBuffer.wrap(stored[z]);
+
+		Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+		FileChannel out = FileChannel.open(tmp, StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+		try {
+			long remaining = offset;
+			while (remaining > 0)
+				remaining -= out.write(buffers);
+		} finally {
+			out.close();
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	private ByteBuffer encodeHeader() {
+		byte[][] names = new byte[labelNames.length][];
+		int size = 7 * 4 + 4 + 2 + 4 + 8;
+		for (int i = 0; i < names.length; i++) {
+			names[i] = labelNames[i].getBytes(UTF8);
+			size += 2 + names[i].length + 4;
+		}
+		ByteBuffer b = ByteBuffer.allocate(size);
+		b.putInt(width).putInt(height).putInt(depth);
+		b.putInt(window_center).putInt(window_width);
+		b.putInt(min_threshold).putInt(max_threshold);
+		b.put((byte) ((useThresholdRange ? 1 : 0)
+				| (stopAtOtherSegmentedRegions ? 2 : 0) | (useGradient ? 4 : 0) | (useAdaptive ? 8
+				: 0)));
+		b.put(neighSize).put(engine).put((byte) 0);
+		b.putShort((short) names.length);
+		for (int i = 0; i < names.length; i++) {
+			b.putShort((short) names[i].length).put(names[i]);
+			b.putInt(labelColors[i]);
+		}
+		b.putInt(gradientThreshold);
+		b.putDouble(adaptiveSigma);
+		b.flip();
+		return b;
+	}
+
+	// (label, run length) pairs, run lengths as variable length integers
+	static byte[] encodeRuns(byte[] labels) {
+		byte[] out = new byte[Math.max(64, labels.length / 16)];
+		int size = 0;
+		int i = 0;
+		while (i < labels.length) {
+			final byte value = labels[i];
+			int end = i + 1;
+			while (end < labels.length && labels[end] == value)
+				end++;
+			if (size + 6 > out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			out[size++] = value;
+			int n = end - i;
+			while ((n & ~0x7f) != 0) {
+				out[size++] = (byte) ((n & 0x7f) | 0x80);
+				n >>>= 7;
+			}
+			out[size++] = (byte) n;
+			i = end;
+		}
+		return Arrays.copyOf(out, size);
+	}
+
+	static void decodeRuns(byte[] runs, byte[] labels) throws IOException {
+		int pos = 0, i = 0;
+		while (pos < runs.length) {
+			final byte value = runs[pos++];
+			int n = 0, shift = 0;
+			byte b;
+			do {
+				if (pos >= runs.length)
+					throw new IOException("truncated label runs");
+				b = runs[pos++];
+				n |= (b & 0x7f) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			if (n > labels.length - i)
+				throw new IOException("label runs exceed the slice");
+			Arrays.fill(labels, i, i + n, value);
+			i += n;
+		}
+		if (i != labels.length)
+			throw new IOException("label runs do not cover the slice");
+	}
+
+	// --- reading ---
+
+	// read the whole session
+	static SegmentationSession read(Path file) throws IOException {
+		final FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			final SegmentationSession session = readHeader(in);
+			final long[] table = readTable(in, session);
+			session.labels = new byte[session.depth][];
+
+			final IOException[] error = new IOException[1];
+			List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>();
+			for (int z = 0; z < session.depth; z++) {
+				final int slice = z;
+				tasks.add(new Callable<Integer>() {
+					public Integer call() {
+						try {
+							session.labels[slice] = readSlice(in, session,
+									table, slice);
+						} catch (IOException e) {
+							synchronized (error) {
+								error[0] = e;
+							}
+						}
+						return 0;
+					}
+				});
+			}
+			ParallelRegionGrowing.runAll(tasks);
+			synchronized (error) {
+				if (error[0] != null)
+					throw error[0];
+			}
+			return session;
+		} finally {
+			in.close();
+		}
+	}
+
+	private static SegmentationSession readHeader(FileChannel in)
+			throws IOException {
+		ByteBuffer start = readFully(in, 0, 12);
+		if (start.getInt() != MAGIC)
+			throw new IOException("not a segmentation session");
+		short version = start.getShort();
+		if (version != VERSION)
+			throw new IOException("unsupported session version " + version);
+		start.getShort();
+		int length = start.getInt();
+		if (length < 0 || length > (1 << 24))
+			throw new IOException("corrupt session header");
+		ByteBuffer b = readFully(in, 12, length + 4);
+		if (crc(b.array(), 0, length) != b.getInt(length))
+			throw new IOException("session header checksum mismatch");
+		b.limit(length);
+
+		// a header shorter or longer than its fields is corrupt
+		SegmentationSession s = new SegmentationSession();
+		try {
+			s.width = b.getInt();
+			s.height = b.getInt();
+			s.depth = b.getInt();
+			// every slice must fit into an array, the offset table into the
+			// file
+			if (s.width <= 0 || s.height <= 0 || s.depth <= 0
+					|| (long) s.width * s.height > Integer.MAX_VALUE - 8
+					|| 12L + length + 4 + 16L * s.depth > in.size())
+				throw new IOException("corrupt session header");
+			s.window_center = b.getInt();
+			s.window_width = b.getInt();
+			s.min_threshold = b.getInt();
+			s.max_threshold = b.getInt();
+			byte flags = b.get();
+			s.useThresholdRange = (flags & 1) != 0;
+			s.stopAtOtherSegmentedRegions = (flags & 2) != 0;
+			s.useGradient = (flags & 4) != 0;
+			s.useAdaptive = (flags & 8) != 0;
+			s.neighSize = b.get();
+			s.engine = b.get();
+			b.get();
+			int numLabels = b.getShort() & 0xffff;
+			s.labelNames = new String[numLabels];
+			s.labelColors = new int[numLabels];
+			for (int i = 0; i < numLabels; i++) {
+				byte[] name = new byte[b.getShort() & 0xffff];
+				b.get(name);
+				s.labelNames[i] = new String(name, UTF8);
+				s.labelColors[i] = b.getInt();
+			}
+			s.gradientThreshold = b.getInt();
+			s.adaptiveSigma = b.getDouble();
+		} catch (BufferUnderflowException e) {
+			throw new IOException("corrupt session header");
+		}
+		if (b.hasRemaining())
+			throw new IOException("corrupt session header");
+		return s;
+	}
+
+	// offset table as (offset, length, crc) triples
+	private static long[] readTable(FileChannel in, SegmentationSession s)
+			throws IOException {
+		ByteBuffer start = readFully(in, 8, 4);
+		long position = 12 + start.getInt() + 4;
+		ByteBuffer b = readFully(in, position, 16 * s.depth);
+		long[] table = new long[3 * s.depth];
+		for (int z = 0; z < s.depth; z++) {
+			table[3 * z] = b.getLong();
+			table[3 * z + 1] = b.getInt();
+			table[3 * z + 2] = b.getInt();
+		}
+		return table;
+	}
+
+	private static byte[] readSlice(FileChannel in, SegmentationSession s,
+			long[] table, int z) throws IOException {
+		long length = table[3 * z + 1];
+		if (table[3 * z] < 0 || length < 0
+				|| table[3 * z] + length > in.size())
+			throw new IOException("slice " + z + " is truncated");
+		ByteBuffer b = readFully(in, table[3 * z], (int) length);
+		if (crc(b.array(), 0, (int) length) != (int) table[3 * z + 2])
+			throw new IOException("slice " + z + " checksum mismatch");
+		byte[] labels = new byte[s.width * s.height];
+		decodeRuns(inflate(b.array()), labels);
+		return labels;
+	}
+
+	// positional read, safe for concurrent readers of the same channel
+	private static ByteBuffer readFully(FileChannel in, long position,
+			int length) throws IOException {
+		ByteBuffer b = ByteBuffer.allocate(length);
+		while (b.hasRemaining()) {
+			if (in.read(b, position + b.position()) < 0)
+				throw new IOException("unexpected end of session file");
+		}
+		b.flip();
+		return b;
+	}
+
+	private static int crc(byte[] data, int offset, int length) {
+		CRC32 crc = new CRC32();
+		crc.update(data, offset, length);
+		return (int) crc.getValue();
+	}
+
+	private static byte[] deflate(byte[] data) {
+		Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+		deflater.setInput(data);
+		deflater.finish();
+		byte[] out = new byte[Math.max(64, data.length / 2)];
+		int n = 0;
+		while (!deflater.finished()) {
+			if (n == out.length)
+				out = Arrays.copyOf(out, out.length * 2);
+			n += deflater.deflate(out, n, out.length - n);
+		}
+		deflater.end();
+		return Arrays.copyOf(out, n);
+	}
+
+	private static byte[] inflate(byte[] data) throws IOException {
+		Inflater inflater = new Inflater();
+		inflater.setInput(data);
+		byte[] out = new byte[Math.max(64, data.length * 4)];
+		int n = 0;
+		try {
+			while (!inflater.finished()) {
+				if (n == out.length)
+					out = Arrays.copyOf(out, out.length * 2);
+				int inflated = inflater.inflate(out, n, out.length - n);
+				if (inflated == 0 && inflater.needsInput())
+					throw new IOException("truncated slice data");
+				n += inflated;
+			}
+		} catch (DataFormatException e) {
+			throw new IOException("corrupt slice data", e);
+		} finally {
+			inflater.end();
+		}
+		return Arrays.copyOf(out, n);
+	}
+}
@@ -1,11 +1,16 @@
 import java.awt.*;
 import java.awt.event.*;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import javax.swing.*;
 import javax.swing.event.*;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
 import ij.*;
 import ij.gui.*;
+import ij.measure.ResultsTable;
 
 // dialog that acts as a view + controller for the parameters of Segmentation_16Bit 
 public class SegmentationToolDialog extends JDialog implements ChangeListener,
@@ -23,16 +28,48 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 	private JSlider min_threshold_slider, max_threshold_slider;
 	private JTextField min_threshold_txt, max_threshold_txt;
 	private JCheckBox chk_useThresholds, chk_excludeSegmentedRegions;
+	private JLabel threshold_count;
+	private JCheckBox chk_livePreview;
+	private JCheckBox chk_useGradient;
+	private JSlider gradient_slider;
+	private JTextField gradient_txt;
+	private JButton btn_otsu, btn_multiOtsu;
 	private JButton btn_erode3, btn_dilate3, btn_erode7, btn_dilate7,
 			btn_clear;
-	private JButton btn_saveLabel, btn_selectLabel, btn_clearLabel;
-	private JComboBox combo_label;
+	private JSpinner spin_kernelSize;
+	private JButton btn_erode, btn_dilate, btn_open, btn_close;
+	private JButton btn_saveLabel, btn_selectLabel, btn_clearLabel,
+			btn_addLabel;
+	private JButton btn_keepComponents;
+	private JButton btn_growSeeds, btn_clearSeeds;
+	private JSpinner spin_components;
+	private JButton btn_undo, btn_redo;
+	private JButton btn_saveSession, btn_loadSession;
+	private JComboBox<String> combo_label;
+	private JLabel label_stats;
+
+	// label and model.getLabelChanges() the label statistics show
+	private int statsLabel = -1, statsLabelChanges;
 	private JComboBox neighborhood_size;
+	private JComboBox<String> grow_engine;
+	private JCheckBox chk_adaptive;
+	private JSpinner spin_adaptiveSigma;
 
 	// the mouse listener needs to know the canvas within the output window
 	ImagePlus img;
 	ImageCanvas canvas;
 
+	// start pixel of the last plain click, grown again from when the
+	// thresholds change with live preview on
+	private PixelInfo previewSeed;
+
+	// region of the last grow, reused for every click
+	private SelectionMask grown;
+
+	// set while the widgets are updated from the model, so that their
+	// change events do not write half updated values back
+	private boolean updatingView = false;
+
 	// constructor puts together the elements of the dialog
 	public SegmentationToolDialog(final Segmentation_16Bit model) {
 
@@ -55,6 +92,8 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		panel.add(makeGroup_neighSizeSel());
 		panel.add(makeGroup_Selection());
 		panel.add(makeGroup_Labels());
+		panel.add(makeGroup_History());
+		panel.add(makeGroup_Session());
 
 		// move all components up, keep free space at bottom (if at all)
 		panel.add(Box.createVerticalGlue());
@@ -83,7 +122,6 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 				.setMajorTickSpacing((model.max_value - model.min_value) / 10);
 		window_center_slider.setPaintTicks(true);
 		window_center_slider.setPaintLabels(false);
-		window_center_slider.addChangeListener(this);
 		window_center_txt = new JTextField(5);
 
 		// slider with text to define the width of the pixel value image
@@ -119,6 +157,8 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		row.add(autoWindow);
 		autoWindow.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent ev) {
+				if (updatingView)
+					return;
 				model.calculateAutoWindow();
 				model.update();
 				updateViewController();
@@ -140,7 +180,6 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 				.setMajorTickSpacing((model.max_value - model.min_value) / 10);
 		min_threshold_slider.setPaintTicks(true);
 		min_threshold_slider.setPaintLabels(false);
-		min_threshold_slider.addChangeListener(this);
 		min_threshold_txt = new JTextField(5);
 
 		// slider with text to define upper threshold
@@ -150,7 +189,6 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 				.setMajorTickSpacing((model.max_value - model.min_value) / 10);
 		max_threshold_slider.setPaintTicks(true);
 		max_threshold_slider.setPaintLabels(false);
-		max_threshold_slider.addChangeListener(this);
 		max_threshold_txt = new JTextField(5);
 		chk_useThresholds = new JCheckBox("pixel value thresholds:",
 				model.regionGrowing.useThresholdRange);
@@ -188,6 +226,54 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 				this);
 		group.add(row);
 
+		// threshold suggestions from the histogram
+		btn_otsu = new JButton("Otsu");
+		btn_otsu.addActionListener(this);
+		btn_multiOtsu = new JButton("Multi-Otsu (3)");
+		btn_multiOtsu.addActionListener(this);
+		// there is nothing to separate with too few values
+		btn_otsu.setEnabled(model.getNumPixelValues() >= 2);
+		btn_multiOtsu.setEnabled(model.getNumPixelValues() >= 3);
+		threshold_count = new JLabel(" ");
+		// gradient criterion: stop at edges stronger than the threshold
+		chk_useGradient = new JCheckBox("stop at edges, gradient <=",
+				model.regionGrowing.useGradient);
+		chk_useGradient.addChangeListener(this);
+		int maxGradient = Math.max(1, model.max_value - model.min_value);
+		gradient_slider = new JSlider(JSlider.HORIZONTAL, 0, maxGradient,
+				Math.min(model.regionGrowing.gradientThreshold, maxGradient));
+		gradient_slider.setMajorTickSpacing(Math.max(1, maxGradient / 10));
+		gradient_slider.setPaintTicks(true);
+		gradient_slider.setPaintLabels(false);
+		gradient_txt = new JTextField(5);
+
+		chk_livePreview = new JCheckBox("live preview",
+				model.regionGrowing.useComponentTree);
+		chk_livePreview
+				.setToolTipText("grow the last clicked region again while the thresholds move");
+		chk_livePreview.addChangeListener(this);
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(btn_otsu);
+		row.add(btn_multiOtsu);
+		row.add(Box.createHorizontalStrut(8));
+		row.add(threshold_count);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(chk_useGradient);
+		addSliderWithTextField(row, gradient_slider, gradient_txt, this);
+		group.add(row);
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(chk_livePreview);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
 		return group;
 	}
 
@@ -207,6 +293,17 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		btn_dilate7 = new JButton("Dilate 7x7");
 		btn_dilate7.addActionListener(this);
 
+		// any odd kernel size for erosion, dilatation, opening and closing
+		spin_kernelSize = new JSpinner(new SpinnerNumberModel(15, 1, 255, 2));
+		btn_erode = new JButton("Erode");
+		btn_erode.addActionListener(this);
+		btn_dilate = new JButton("Dilate");
+		btn_dilate.addActionListener(this);
+		btn_open = new JButton("Open");
+		btn_open.addActionListener(this);
+		btn_close = new JButton("Close");
+		btn_close.addActionListener(this);
+
 		// layout in one row for now
 		JPanel group = new JPanel();
 		group.setLayout(new BoxLayout(group, BoxLayout.Y_AXIS));
@@ -221,6 +318,17 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		row.add(Box.createHorizontalGlue());
 		group.add(row);
 
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(new JLabel("Kernel: "));
+		row.add(spin_kernelSize);
+		row.add(btn_erode);
+		row.add(btn_dilate);
+		row.add(btn_open);
+		row.add(btn_close);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
 		return group;
 	}
 
@@ -229,6 +337,14 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 	private JPanel makeGroup_neighSizeSel() {
 		neighborhood_size = new JComboBox(model.neighSizeMenu);
 		neighborhood_size.addActionListener(this);
+		grow_engine = new JComboBox<String>(model.growEngineMenu);
+		grow_engine.addActionListener(this);
+		chk_adaptive = new JCheckBox("adaptive range: mean +- k sigma, k =",
+				model.regionGrowing.useAdaptive);
+		chk_adaptive.addChangeListener(this);
+		spin_adaptiveSigma = new JSpinner(new SpinnerNumberModel(
+				model.regionGrowing.adaptiveSigma, 0.5, 10.0, 0.5));
+		spin_adaptiveSigma.addChangeListener(this);
 
 		JPanel group = new JPanel();
 		group.setLayout(new BoxLayout(group, BoxLayout.Y_AXIS));
@@ -239,7 +355,21 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		row.add(neighborhood_size);
 		row.add(Box.createHorizontalGlue());
 		group.add(row);
-		
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(new JLabel("Engine: "));
+		row.add(grow_engine);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(chk_adaptive);
+		row.add(spin_adaptiveSigma);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
 		return group;
 	}
 
@@ -253,8 +383,19 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		btn_selectLabel.addActionListener(this);
 		btn_clearLabel = new JButton("clear");
 		btn_clearLabel.addActionListener(this);
-		combo_label = new JComboBox(model.labelNames);
+		btn_addLabel = new JButton("new label");
+		btn_addLabel.addActionListener(this);
+		combo_label = new JComboBox<String>(model.labelNames);
 		combo_label.addActionListener(this);
+		label_stats = new JLabel(" ");
+		btn_keepComponents = new JButton("keep largest components");
+		btn_keepComponents.addActionListener(this);
+		spin_components = new JSpinner(new SpinnerNumberModel(5, 1,
+				LabelMap.MAX_LABELS, 1));
+		btn_growSeeds = new JButton("grow all seeds (0)");
+		btn_growSeeds.addActionListener(this);
+		btn_clearSeeds = new JButton("clear seeds");
+		btn_clearSeeds.addActionListener(this);
 		chk_excludeSegmentedRegions = new JCheckBox(
 				"exclude already labeled regions");
 
@@ -270,6 +411,31 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		row.add(btn_saveLabel);
 		row.add(btn_selectLabel);
 		row.add(btn_clearLabel);
+		row.add(btn_addLabel);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(label_stats);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		// every connected region within the thresholds at once, the
+		// largest become new labels
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(btn_keepComponents);
+		row.add(spin_components);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		// ctrl+click adds a seed for the current label, all seeds are then
+		// grown at once
+		row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(btn_growSeeds);
+		row.add(btn_clearSeeds);
 		row.add(Box.createHorizontalGlue());
 		group.add(row);
 
@@ -282,8 +448,141 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		return group;
 	}
 
+	// group: undo/redo ----------------------------------------------------
+	private JPanel makeGroup_History() {
+
+		btn_undo = new JButton("Undo");
+		btn_undo.addActionListener(this);
+		btn_undo.setEnabled(false);
+		btn_redo = new JButton("Redo");
+		btn_redo.addActionListener(this);
+		btn_redo.setEnabled(false);
+
+		JPanel group = new JPanel();
+		group.setLayout(new BoxLayout(group, BoxLayout.Y_AXIS));
+		group.setBorder(BorderFactory.createTitledBorder("History"));
+
+		JPanel row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(btn_undo);
+		row.add(btn_redo);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		return group;
+	}
+
+	// group: save/load session
+	// ----------------------------------------------------
+	private JPanel makeGroup_Session() {
+
+		btn_saveSession = new JButton("Save session...");
+		btn_saveSession.addActionListener(this);
+		btn_loadSession = new JButton("Load session...");
+		btn_loadSession.addActionListener(this);
+
+		JPanel group = new JPanel();
+		group.setLayout(new BoxLayout(group, BoxLayout.Y_AXIS));
+		group.setBorder(BorderFactory.createTitledBorder("Session"));
+
+		JPanel row = new JPanel();
+		row.setLayout(new BoxLayout(row, BoxLayout.X_AXIS));
+		row.add(btn_saveSession);
+		row.add(btn_loadSession);
+		row.add(Box.createHorizontalGlue());
+		group.add(row);
+
+		return group;
+	}
+
+	// ask for a session file, null if canceled
+	private Path chooseSessionFile(boolean save) {
+		JFileChooser chooser = new JFileChooser();
+		chooser.setFileFilter(new FileNameExtensionFilter("Segmentation sessions",
+				SegmentationSession.EXTENSION.substring(1)));
+		int result = save ? chooser.showSaveDialog(this) : chooser
+				.showOpenDialog(this);
+		if (result != JFileChooser.APPROVE_OPTION)
+			return null;
+		String name = chooser.getSelectedFile().getPath();
+		if (save && !name.endsWith(SegmentationSession.EXTENSION))
+			name += SegmentationSession.EXTENSION;
+		return Paths.get(name);
+	}
+
+	private void saveSession() {
+		Path file = chooseSessionFile(true);
+		if (file == null)
+			return;
+		try {
+			long startTime = System.currentTimeMillis();
+			model.saveSession(file);
+			IJ.showStatus("session saved in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+		} catch (IOException e) {
+			IJ.error("Segmentation Tool", "Could not save the session:\n"
+					+ e.getMessage());
+		}
+	}
+
+	private void loadSession() {
+		Path file = chooseSessionFile(false);
+		if (file == null)
+			return;
+		try {
+			long startTime = System.currentTimeMillis();
+			model.loadSession(file);
+			IJ.showStatus("session loaded in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+		} catch (IOException e) {
+			IJ.error("Segmentation Tool", "Could not load the session:\n"
+					+ e.getMessage());
+			return;
+		}
+		previewSeed = null;
+		updateViewController();
+	}
+
+	// label the n largest connected components and list them
+	private void keepLargestComponents() {
+		long startTime = System.currentTimeMillis();
+		ConnectedComponents components = model.findComponents();
+		int firstLabel = model.labelNames.length + 1;
+		int[] kept = model.keepLargestComponents(components,
+				((Number) spin_components.getValue()).intValue());
+		IJ.showStatus(components.getCount() + " components found, "
+				+ kept.length + " labeled in "
+				+ (System.currentTimeMillis() - startTime) + " ms");
+
+		ResultsTable table = new ResultsTable();
+		for (int i = 0; i < kept.length; i++) {
+			Rectangle b = components.getBounds(kept[i]);
+			table.incrementCounter();
+			table.addValue("Label", firstLabel + i);
+			table.addValue("Pixels", components.getSize(kept[i]));
+			table.addValue("X", components.getCentroidX(kept[i]));
+			table.addValue("Y", components.getCentroidY(kept[i]));
+			table.addValue("BX", b.x);
+			table.addValue("BY", b.y);
+			table.addValue("Width", b.width);
+			table.addValue("Height", b.height);
+		}
+		table.show("Connected Components");
+		updateViewController();
+	}
+
 	// update values in UI components according to model state
 	public void updateViewController() {
+		updatingView = true;
+		try {
+			updateWidgets();
+		} finally {
+			updatingView = false;
+		}
+		updateModel();
+	}
+
+	private void updateWidgets() {
 
 		min_label.setText("" + model.min_value);
 		max_label.setText("" + model.max_value);
@@ -304,16 +603,63 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		chk_excludeSegmentedRegions
 				.setSelected(model.regionGrowing.stopAtOtherSegmentedRegions);
 
+		min_threshold_slider.setValue(model.regionGrowing.min_threshold);
+		max_threshold_slider.setValue(model.regionGrowing.max_threshold);
+		chk_useGradient.setSelected(model.regionGrowing.useGradient);
+		chk_adaptive.setSelected(model.regionGrowing.useAdaptive);
+		spin_adaptiveSigma.setValue(model.regionGrowing.adaptiveSigma);
+		gradient_slider.setValue(model.regionGrowing.gradientThreshold);
+		for (int i = 0; i < Segmentation_16Bit.neighSizeValues.length; i++) {
+			if (Segmentation_16Bit.neighSizeValues[i] == model.regionGrowing.neighSize)
+				neighborhood_size.setSelectedIndex(i);
+		}
+		for (int i = 0; i < Segmentation_16Bit.growEngineValues.length; i++) {
+			if (Segmentation_16Bit.growEngineValues[i] == model.regionGrowing.engine)
+				grow_engine.setSelectedIndex(i);
+		}
+
+		// label names (replaced by addLabel() or a loaded session)
+		boolean same = combo_label.getItemCount() == model.labelNames.length;
+		for (int i = 0; same && i < model.labelNames.length; i++)
+			same = model.labelNames[i].equals(combo_label.getItemAt(i));
+		if (!same) {
+			int selected = combo_label.getSelectedIndex();
+			combo_label.removeAllItems();
+			for (String name : model.labelNames)
+				combo_label.addItem(name);
+			combo_label.setSelectedIndex(Math.max(0,
+					Math.min(selected, model.labelNames.length - 1)));
+		}
 	}
 
 	// called whenever one of the UI elements changes...
 	@Override
 	public void stateChanged(ChangeEvent e) {
+		if (updatingView)
+			return;
+
+		// live preview: grow from the last seed again with the new
+		// thresholds. the whole drag of a slider becomes one undo step.
+		if (chk_livePreview != null && chk_livePreview.isSelected()
+				&& previewSeed != null
+				&& (e.getSource() == min_threshold_slider || e.getSource() == max_threshold_slider)) {
+			model.setEditInProgress(((JSlider) e.getSource())
+					.getValueIsAdjusting());
+			model.regionGrowing.useComponentTree = true;
+			model.regionGrowing.useThresholdRange = chk_useThresholds
+					.isSelected();
+			model.regionGrowing.min_threshold = min_threshold_slider.getValue();
+			model.regionGrowing.max_threshold = max_threshold_slider.getValue();
+			growRegion(previewSeed, 0);
+			model.commitEdit();
+		}
 		updateModel();
 	}
 
 	// update values in model, and refresh display of the model
 	public void updateModel() {
+		if (updatingView)
+			return;
 
 		model.window_center = window_center_slider.getValue();
 		model.window_width = window_width_slider.getValue();
@@ -325,14 +671,43 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 
 		model.regionGrowing.stopAtOtherSegmentedRegions = this.chk_excludeSegmentedRegions
 				.isSelected();
+		if (chk_livePreview != null)
+			model.regionGrowing.useComponentTree = chk_livePreview.isSelected();
+		if (chk_adaptive != null) {
+			model.regionGrowing.useAdaptive = chk_adaptive.isSelected();
+			model.regionGrowing.adaptiveSigma = ((Number) spin_adaptiveSigma
+					.getValue()).doubleValue();
+		}
+		if (chk_useGradient != null) {
+			model.regionGrowing.useGradient = chk_useGradient.isSelected();
+			model.regionGrowing.gradientThreshold = gradient_slider.getValue();
+		}
 
 		model.update();
 
+		// pixels within the thresholds, from the histogram
+		if (threshold_count != null) {
+			long inRange = model.countInThresholdRange();
+			threshold_count.setText(String.format("%d pixels (%.1f%%) in range",
+					inRange, 100.0 * inRange / model.getNumPixels()));
+		}
+
+		if (btn_growSeeds != null)
+			btn_growSeeds.setText("grow all seeds (" + model.getNumSeeds()
+					+ ")");
+
+		// (also called while the dialog is built)
+		if (btn_undo != null) {
+			btn_undo.setEnabled(model.canUndo());
+			btn_redo.setEnabled(model.canRedo());
+		}
 	}
 
 	// react to button presses
 	@Override
 	public void actionPerformed(ActionEvent ev) {
+		if (updatingView)
+			return;
 
 		// which label is currently selected?
 		byte labelIndex = (byte) (combo_label.getSelectedIndex() + 1);
@@ -347,6 +722,14 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 			model.dilate_selection(3);
 		} else if (ev.getSource() == this.btn_dilate7) {
 			model.dilate_selection(7);
+		} else if (ev.getSource() == this.btn_erode) {
+			model.erode_selection(getKernelSize());
+		} else if (ev.getSource() == this.btn_dilate) {
+			model.dilate_selection(getKernelSize());
+		} else if (ev.getSource() == this.btn_open) {
+			model.open_selection(getKernelSize());
+		} else if (ev.getSource() == this.btn_close) {
+			model.close_selection(getKernelSize());
 		} else if (ev.getSource() == this.btn_clearLabel) {
 			model.clearLabel(labelIndex);
 		} else if (ev.getSource() == this.btn_saveLabel) {
@@ -354,15 +737,93 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 			model.clearSelection();
 		} else if (ev.getSource() == this.btn_selectLabel) {
 			model.selectLabel(labelIndex);
+		} else if (ev.getSource() == this.btn_otsu) {
+			// the brighter of the two classes
+			setThresholds(model.suggestOtsuThreshold() + 1, model.max_value);
+		} else if (ev.getSource() == this.btn_multiOtsu) {
+			// the middle of three classes
+			int[] t = model.suggestMultiOtsuThresholds(3);
+			setThresholds(t[0] + 1, t[1]);
+		} else if (ev.getSource() == this.btn_keepComponents) {
+			keepLargestComponents();
+		} else if (ev.getSource() == this.btn_growSeeds) {
+			long startTime = System.currentTimeMillis();
+			int seeds = model.getNumSeeds();
+			int grown = model.growSeeds();
+			IJ.showStatus(seeds + " seeds grew to " + grown + " pixels in "
+					+ (System.currentTimeMillis() - startTime) + " ms");
+		} else if (ev.getSource() == this.btn_clearSeeds) {
+			model.clearSeeds();
+		} else if (ev.getSource() == this.btn_saveSession) {
+			saveSession();
+		} else if (ev.getSource() == this.btn_loadSession) {
+			loadSession();
+			labelIndex = (byte) (combo_label.getSelectedIndex() + 1);
+		} else if (ev.getSource() == this.btn_undo) {
+			model.undo();
+		} else if (ev.getSource() == this.btn_redo) {
+			model.redo();
+		} else if (ev.getSource() == this.btn_addLabel) {
+			int added = model.addLabel();
+			if (added > 0) {
+				combo_label.addItem(model.labelNames[added - 1]);
+				combo_label.setSelectedIndex(added - 1);
+				labelIndex = (byte) added;
+			} else {
+				IJ.showStatus("All " + LabelMap.MAX_LABELS
+						+ " labels are in use");
+			}
 		}
+		updateLabelStats(labelIndex);
 
 		// get the selected neighborhood size for the model
 		byte neighSizeIndex = (byte) (neighborhood_size.getSelectedIndex());
 		model.regionGrowing.neighSize = Segmentation_16Bit.neighSizeValues[neighSizeIndex];
 
+		// and the growing engine
+		byte engineIndex = (byte) (grow_engine.getSelectedIndex());
+		model.regionGrowing.engine = Segmentation_16Bit.growEngineValues[engineIndex];
+
+		// the operation is one undo step
+		model.commitEdit();
 		updateModel();
 	}
 
+	// switch thresholding on and move both threshold sliders
+	private void setThresholds(int min, int max) {
+		chk_useThresholds.setSelected(true);
+		min_threshold_slider.setValue(Math.min(min, max));
+		max_threshold_slider.setValue(max);
+	}
+
+	// pixel count, bounding box and intensities of the current label
+	private void updateLabelStats(byte labelIndex) {
+		// the label's histogram is only built again if the label or its
+		// pixels may have changed
+		if ((labelIndex & 0xff) == statsLabel
+				&& model.getLabelChanges() == statsLabelChanges)
+			return;
+		statsLabel = labelIndex & 0xff;
+		statsLabelChanges = model.getLabelChanges();
+
+		int count = model.getLabelCount(labelIndex);
+		Rectangle b = model.getLabelBounds(labelIndex);
+		if (b == null) {
+			label_stats.setText("empty");
+		} else {
+			IntensityHistogram h = model.getLabelStatistics(labelIndex);
+			label_stats.setText(String.format(
+					"%d pixels in %dx%d at (%d,%d), mean %.1f \u00b1 %.1f", count,
+					b.width, b.height, b.x, b.y, h.getMean(), h.getStdDev()));
+		}
+	}
+
+	// kernel size for the morphology buttons, always odd
+	private int getKernelSize() {
+		int size = ((Number) spin_kernelSize.getValue()).intValue();
+		return (size % 2 == 0) ? size + 1 : size;
+	}
+
 	// react to mouse actions
 	public void mouseClicked(MouseEvent e) {
 
@@ -372,24 +833,50 @@ public class SegmentationToolDialog extends JDialog implements ChangeListener,
 		PixelInfo startPixel = PixelInfo.createFromXY(x, y,
 				model.getImageWidth(), model.getImageHeight());
 
-		// create an empty temprary selection
-		boolean[] tmp_select = new boolean[model.getNumPixels()];
+		// ctrl+click: seed for growing all seeds at once
+		int modifiers = e.getModifiers();
+		if ((modifiers & Event.CTRL_MASK) != 0) {
+			int labelIndex = combo_label.getSelectedIndex() + 1;
+			model.addSeed(startPixel, (byte) labelIndex);
+			IJ.showStatus("seed " + model.getNumSeeds() + " for "
+					+ model.labelNames[labelIndex - 1]);
+			updateModel();
+			return;
+		}
+
+		// plain clicks are remembered for the live preview
+		if ((modifiers & (Event.SHIFT_MASK | Event.ALT_MASK)) == 0)
+			previewSeed = startPixel;
+
+		growRegion(startPixel, modifiers);
+		model.commitEdit();
+		updateModel();
+	}
+
+	// grow from a pixel, and add the region to, subtract it from or let it
+	// replace the selection depending on the modifier keys
+	private void growRegion(PixelInfo startPixel, int modifiers) {
+
+		// empty the temporary selection
+		if (grown == null)
+			grown = new SelectionMask(model.getImageWidth(),
+					model.getImageHeight());
+		grown.clear();
+		SelectionMask tmp_select = grown;
 
 		// start region growing
 		int q = this.model.regionGrowing.grow(startPixel, tmp_select);
-		System.out.println("found a connected region of " + q + " pixels");
+		IJ.showStatus("found a connected region of " + q + " pixels");
 
 		// add, replace, subtract?
-		if ((e.getModifiers() & Event.SHIFT_MASK) != 0) {
+		if ((modifiers & Event.SHIFT_MASK) != 0) {
 			model.addToSelection(tmp_select);
-		} else if ((e.getModifiers() & Event.ALT_MASK) != 0) {
+		} else if ((modifiers & Event.ALT_MASK) != 0) {
 			model.removeFromSelection(tmp_select);
 		} else {
 			// no modifier key: replace model's selection by this one
 			model.replaceSelection(tmp_select);
 		}
-
-		updateModel();
 	}
 
 	public void mouseReleased(MouseEvent e) {
@@ -1,3 +1,9 @@
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
 import ij.gui.*;
 import ij.plugin.filter.PlugInFilter;
 import ij.process.ImageProcessor;
@@ -17,16 +23,25 @@ public class Segmentation_16Bit implements PlugInFilter {
 	// region growing component for identifying connected components
 	public RegionGrowing regionGrowing;
 
-	// names and colors for the different labels assigned to pixels
-	public final String[] labelNames = { "Label 1", "Label 2", "Label 3",
+	// names and colors for the different labels assigned to pixels. more
+	// labels (up to LabelMap.MAX_LABELS) are added through addLabel(), which
+	// replaces both arrays.
+	public String[] labelNames = { "Label 1", "Label 2", "Label 3",
 			"Label 4", "Label 5" };
-	public final int[] labelColors = new int[] { 0x0000ff, 0x2020ff, 0x4040ff,
+	public int[] labelColors = new int[] { 0x0000ff, 0x2020ff, 0x4040ff,
 			0x6060ff, 0x8080ff };
 
 	// values for neighborhood size in growing algorithm
 	public final String[] neighSizeMenu = new String[] { "4 Pix.", "8 Pix." };
 	public final static byte[] neighSizeValues = new byte[] { 4, 8 };
 
+	// values for the growing engine
+	public final String[] growEngineMenu = new String[] { "Queue", "Scanline",
+			"Parallel" };
+	public final static byte[] growEngineValues = new byte[] {
+			RegionGrowing.ENGINE_QUEUE, RegionGrowing.ENGINE_SCANLINE,
+			RegionGrowing.ENGINE_PARALLEL };
+
 	// --- end of public attributes ---
 
 	// a dialog provides the combined view + controller
@@ -37,10 +52,11 @@ public class Segmentation_16Bit implements PlugInFilter {
 	private ImagePlus outputImage;
 
 	// current selection (which pixels are seletced, bit mask)
-	private boolean[] selection;
+	private SelectionMask selection;
 
-	// per-pixel labels (up to 255 different labels per pixel)
-	private byte[] labels;
+	// per-pixel labels (up to 255 different labels per pixel), with an
+	// index of every label's pixels
+	private LabelMap labelMap;
 
 	// for visualization: which color/alpha to use for selection and pixels
 	// within threshold
@@ -49,6 +65,32 @@ public class Segmentation_16Bit implements PlugInFilter {
 	private final int selectionColor = 0x00ff00;
 	private final double selectionAlpha = 0.50;
 
+	// undo/redo of selection and label changes; the region changed since
+	// the last step is collected in pendingEdit
+	private EditHistory history;
+	private Rectangle pendingEdit;
+
+	// while set, changes keep being collected instead of committed (e.g.
+	// a live preview while a slider is dragged)
+	private boolean editInProgress = false;
+
+	// incremental renderer for the output image, and the worker thread that
+	// runs it for interactive updates
+	private OverlayRenderer renderer;
+	private RenderScheduler renderScheduler;
+
+	// histogram of the input image, built once in findMinMaxPixelValue()
+	private IntensityHistogram histogram;
+
+	// number of label changes so far, for views of values derived from the
+	// labels
+	private int labelChanges = 0;
+
+	// seeds for growing several labels at once: pixel index and label
+	private int[] seedPixels = new int[16];
+	private byte[] seedLabels = new byte[16];
+	private int numSeeds = 0;
+
 	// remember whether info dialog has already been shown
 	private boolean messageAlreadyShown = false;
 
@@ -68,8 +110,31 @@ public class Segmentation_16Bit implements PlugInFilter {
 	@Override
 	public void run(ImageProcessor ip) {
 
-		// number of pixels
-		final int N = ip.getWidth() * ip.getHeight();
+		// analyze the input image and set up selection, labels and grower
+		initSegmentation(ip);
+
+		// create a new RGB output image
+		calculateOutputImage();
+
+		// show it before dialog opens (so dialog can take over mouse in that
+		// window)
+		outputImage.show();
+		outputImage.updateAndDraw();
+
+		// from now on, frames are rendered in the background
+		startRenderScheduler();
+
+		// create and show the dialg window, which acts as parameter
+		// controller/view
+		dialog = new SegmentationToolDialog(this);
+		dialog.setVisible(true);
+
+	}
+
+	// analyze the input image, create empty selection and labels and the
+	// region grower. separate from run() so that the segmentation can be
+	// driven without any windows (see the benchmark project).
+	void initSegmentation(ImageProcessor ip) {
 
 		// analyze the input image, find min_value and max_value, set data
 		// window
@@ -77,34 +142,19 @@ public class Segmentation_16Bit implements PlugInFilter {
 		calculateAutoWindow();
 
 		// initially empty selection
-		selection = new boolean[N];
-		for (int i = 0; i < N; i++)
-			selection[i] = false;
+		selection = new SelectionMask(ip.getWidth(), ip.getHeight());
 
 		// segmented regions are stored in a label field
-		this.labels = new byte[N];
+		this.labelMap = new LabelMap(ip.getWidth(), ip.getHeight());
+		this.history = new EditHistory(ip.getWidth(), ip.getHeight());
 
 		// init region grower
 		regionGrowing = new RegionGrowing(ip.getWidth(), ip.getHeight(),
-				(short[]) ip.getPixels(), labels, null);
+				(short[]) ip.getPixels(), labelMap.getPixels(), null);
 
 		// init thresholds
 		regionGrowing.min_threshold = this.min_value;
 		regionGrowing.max_threshold = this.max_value;
-
-		// create a new RGB output image
-		calculateOutputImage();
-
-		// show it before dialog opens (so dialog can take over mouse in that
-		// window)
-		outputImage.show();
-		outputImage.updateAndDraw();
-
-		// create and show the dialg window, which acts as parameter
-		// controller/view
-		dialog = new SegmentationToolDialog(this);
-		dialog.setVisible(true);
-
 	}
 
 	// getters for essential image properties
@@ -120,14 +170,63 @@ public class Segmentation_16Bit implements PlugInFilter {
 		return getImageHeight() * getImageWidth();
 	}
 
-	// given min and max, automatically determine a default display window
+	// fraction of the pixels left out at either end of the auto window, so
+	// that a few outliers do not squeeze the display range
+	private static final double AUTO_WINDOW_CLIP = 0.005;
+
+	// automatically determine a default display window from the percentiles
+	// of the histogram (min and max if there is none yet)
 	public void calculateAutoWindow() {
-		window_width = max_value - min_value;
-		window_center = min_value + window_width / 2;
+		int lo = min_value, hi = max_value;
+		if (histogram != null) {
+			lo = histogram.percentile(AUTO_WINDOW_CLIP);
+			hi = histogram.percentile(1 - AUTO_WINDOW_CLIP);
+			if (hi <= lo) {
+				lo = min_value;
+				hi = max_value;
+			}
+		}
+		window_width = hi - lo;
+		window_center = lo + window_width / 2;
+	}
+
+	// number of pixels within [min_threshold, max_threshold], from the
+	// histogram without looking at the pixels
+	public long countInThresholdRange() {
+		if (histogram == null)
+			return 0;
+		return histogram.countInRange(regionGrowing.min_threshold,
+				regionGrowing.max_threshold);
+	}
+
+	// threshold suggested by Otsu's method: the last value of the darker
+	// class
+	public int suggestOtsuThreshold() {
+		return histogram.otsu();
+	}
+
+	// number of different pixel values, the most classes the suggestions
+	// can separate
+	public int getNumPixelValues() {
+		return (histogram == null) ? 0 : histogram.getNumValues();
+	}
+
+	// thresholds separating the given number of classes (multi-level Otsu),
+	// each the last value of its class
+	public int[] suggestMultiOtsuThresholds(int classes) {
+		return histogram.multiOtsu(classes);
+	}
+
+	// intensity histogram of the pixels of a label (mean, deviation,
+	// percentiles etc.), built from the label's runs
+	public IntensityHistogram getLabelStatistics(byte labelIndex) {
+		return IntensityHistogram.of(
+				(short[]) inputImage.getProcessor().getPixels(), labelMap,
+				labelIndex & 0xff);
 	}
 
 	// calculate the pixels of the output image from those of the input image
-	private void calculateOutputImage() {
+	void calculateOutputImage() {
 
 		if (inputImage == null || inputImage.getProcessor() == null) {
 			if (!messageAlreadyShown) {
@@ -138,118 +237,193 @@ public class Segmentation_16Bit implements PlugInFilter {
 			return;
 		}
 
-		if (outputImage == null || outputImage.getProcessor() == null)
+		if (outputImage == null || outputImage.getProcessor() == null) {
 			outputImage = NewImage.createRGBImage("Output Image",
 					inputImage.getWidth(), inputImage.getHeight(), 1, 0);
+			if (renderer != null)
+				renderer.invalidateAll();
+		}
+		if (renderer == null) {
+			// threshold tint is drawn with 50% opacity
+			renderer = new OverlayRenderer(inputImage.getWidth(),
+					inputImage.getHeight(), thresholdColor, 0.5,
+					selectionColor, selectionAlpha);
+		}
 
-		short[] inPixels = (short[]) inputImage.getProcessor().getPixels();
 		int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
 
+		// only the layers and regions affected by changes are recomputed
+		OverlayRenderer.Parameters p = renderer.capture(
+				currentRenderParameters(), null);
+		if (p != null)
+			renderer.render(p, outPixels, null);
+	}
+
+	// everything the output image depends on, labels and selection live
+	private OverlayRenderer.Parameters currentRenderParameters() {
+
 		// get properties of pixel value window to be displayed
 		int wmin = window_center - (window_width / 2);
 		int wmax = window_center + (window_width / 2);
 
-		// go over all pixels
-		int max = inputImage.getWidth() * inputImage.getHeight();
-		for (int idx = 0; idx < max; idx++) {
+		return new OverlayRenderer.Parameters((short[]) inputImage
+				.getProcessor().getPixels(), labelMap.getPixels(), selection, labelColors,
+				wmin, wmax, regionGrowing.useThresholdRange,
+				regionGrowing.min_threshold, regionGrowing.max_threshold);
+	}
 
-			// input pixel value (16 bit), mask out the sign bit
-			int v = inPixels[idx] & 0xffff;
+	// render further frames on a worker thread, starting from the current
+	// content of the output image
+	private void startRenderScheduler() {
+		if (renderScheduler != null)
+			renderScheduler.shutdown();
+		int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+		renderScheduler = new RenderScheduler(renderer, outPixels.clone(),
+				new RenderScheduler.Display() {
+					public void show(int[] frame, Rectangle changed) {
+						publishFrame(frame, changed);
+					}
+				});
+	}
 
-			// within thresholding range?
-			boolean inRange = (v >= regionGrowing.min_threshold && v <= regionGrowing.max_threshold);
+	// copy the changed region of a finished frame into the output image
+	// (called on the event thread)
+	private void publishFrame(int[] frame, Rectangle changed) {
+		if (outputImage == null || outputImage.getProcessor() == null)
+			return;
+		int[] outPixels = (int[]) outputImage.getProcessor().getPixels();
+		final int width = outputImage.getWidth();
+		for (int y = changed.y; y < changed.y + changed.height; y++) {
+			int start = changed.x + y * width;
+			System.arraycopy(frame, start, outPixels, start, changed.width);
+		}
+		outputImage.show();
+		outputImage.updateAndDraw();
+	}
 
-			// mapping to range [0:255]
-			v = (int) ((v - wmin) / (double) (wmax - wmin) * 255.0);
+	// labels or selection changed within r, has to be re-rendered and
+	// becomes part of the next undo step
+	private void invalidate(Rectangle r) {
+		if (r == null)
+			return;
+		if (renderer != null)
+			renderer.invalidate(r);
+		pendingEdit = (pendingEdit == null) ? new Rectangle(r) : pendingEdit
+				.union(r);
+	}
 
-			// clipping to 0...255
-			if (v < 0) {
-				v = 0;
-			} else if (v > 255) {
-				v = 255;
-			}
+	// everything changed since the last step becomes one undo step. called
+	// by the controller where an edit ends (click, operation, end of a
+	// slider drag), and before undo and redo.
+	public void commitEdit() {
+		if (editInProgress)
+			return;
+		if (pendingEdit != null && history != null)
+			history.commit(selection, labelMap.getPixels(), pendingEdit);
+		pendingEdit = null;
+	}
 
-			// convert single scalar intensity value to RGB gray value
-			v = v + (v << 8) + (v << 16);
+	// collect all following changes into one step until called with false
+	public void setEditInProgress(boolean editInProgress) {
+		this.editInProgress = editInProgress;
+	}
 
-			// if threshold checkbox is activated, replace pixels within
-			// threshold values with semi-transparent red
-			if (regionGrowing.useThresholdRange && inRange) {
-				v = interpolRGB(v, 0xff0000, 0.5);
-			}
+	// undo the last step of selection and label changes
+	public void undo() {
+		commitEdit();
+		boolean[] touched = new boolean[LabelMap.MAX_LABELS + 1];
+		restored(history.undo(selection, labelMap.getPixels(), touched),
+				touched);
+	}
 
-			// part of an already segmented region?
-			int label = labels[idx] & 0xff;
-			if (label != 0) {
-				v = labelColors[label - 1]; // label starts at 0, arrays start
-											// at 0
-			}
+	// redo the last undone step
+	public void redo() {
+		commitEdit();
+		boolean[] touched = new boolean[LabelMap.MAX_LABELS + 1];
+		restored(history.redo(selection, labelMap.getPixels(), touched),
+				touched);
+	}
 
-			// part of current selection?
-			if (selection[idx] == true) {
-				v = interpolRGB(v, selectionColor, selectionAlpha);
-			}
+	private void restored(Rectangle r, boolean[] touched) {
+		if (r == null)
+			return;
+		labelMap.changed(r, touched);
+		labelsChanged();
+		if (renderer != null)
+			renderer.invalidate(r);
+	}
 
-			// write result
-			outPixels[idx] = v;
+	// the labels changed: the grower drops what it derived from them
+	private void labelsChanged() {
+		regionGrowing.labelsChanged();
+		labelChanges++;
+	}
 
-		}
+	// changes whenever the labels change
+	public int getLabelChanges() {
+		return labelChanges;
 	}
 
-	// go through pixels of the input image and find min/max etc.
-	private void findMinMaxPixelValue() {
+	public boolean canUndo() {
+		return history.canUndo();
+	}
 
-		int total = inputImage.getWidth() * inputImage.getHeight();
-		short[] pixels = (short[]) inputImage.getProcessor().getPixels();
-		min_value = 255 * 255;
-		max_value = 0;
-		for (int i = 0; i < total; i++) {
-			int value = (int) (pixels[i] & 0xffff);
-			if (value < min_value)
-				min_value = value;
-			if (value > max_value)
-				max_value = value;
-		}
+	public boolean canRedo() {
+		return history.canRedo();
+	}
+
+	// go through pixels of the input image once and build the histogram,
+	// which gives min/max etc.
+	void findMinMaxPixelValue() {
+		histogram = IntensityHistogram.of((short[]) inputImage.getProcessor()
+				.getPixels());
+		min_value = histogram.getMin();
+		max_value = histogram.getMax();
 	}
 
 	// this is called from the controller if anything has changed
 	public void update() {
-		calculateOutputImage();
-		outputImage.show();
-		outputImage.updateAndDraw();
+		if (renderScheduler == null || outputImage == null
+				|| outputImage.getProcessor() == null) {
+			// (re)create the output image synchronously
+			calculateOutputImage();
+			if (outputImage == null)
+				return;
+			outputImage.show();
+			outputImage.updateAndDraw();
+			startRenderScheduler();
+			return;
+		}
+		// render in the background, newer requests supersede older ones
+		renderScheduler.request(currentRenderParameters());
 	}
 
-	// add "true" pixels in newSelection to current selection
-	public void addToSelection(boolean[] newSelection) {
-		final int N = getNumPixels();
-		for (int i = 0; i < N; i++) {
-			if ((!this.selection[i]) && (newSelection[i])) {
-				this.selection[i] = newSelection[i];
-			}
-		}
+	// add selected pixels in newSelection to current selection
+	public void addToSelection(SelectionMask newSelection) {
+		this.selection.or(newSelection);
+		invalidate(newSelection.getBounds());
 	}
 
-	// remove "true" pixels in newSelection from current selection
-	public void removeFromSelection(boolean[] newSelection) {
-		final int N = getNumPixels();
-		for (int i = 0; i < N; i++) {
-			if ((this.selection[i]) && (newSelection[i])) {
-				this.selection[i] = false;
-			}
-		}
+	// remove selected pixels in newSelection from current selection
+	public void removeFromSelection(SelectionMask newSelection) {
+		this.selection.andNot(newSelection);
+		invalidate(newSelection.getBounds());
 	}
 
-	// replace current selection by newSelection
-	public void replaceSelection(boolean[] newSelection) {
-		this.selection = newSelection;
+	// replace current selection by (a copy of) newSelection, which the
+	// caller may reuse afterwards
+	public void replaceSelection(SelectionMask newSelection) {
+		Rectangle before = this.selection.getBounds();
+		this.selection.copyFrom(newSelection);
+		invalidate(before);
+		invalidate(newSelection.getBounds());
 	}
 
-	// clear current selection (all false)
+	// clear current selection (nothing selected)
 	public void clearSelection() {
-		final int N = getNumPixels();
-		for (int i = 0; i < N; i++) {
-			this.selection[i] = false;
-		}
+		Rectangle before = this.selection.getBounds();
+		this.selection.clear();
+		invalidate(before);
 	}
 
 	// erode current selection
@@ -262,7 +436,7 @@ public class Segmentation_16Bit implements PlugInFilter {
 
 	// dilate current selection
 	public void dilate_selection(int kernel_size) {
-		final boolean transferred_selection[] = this.selection;
+		final SelectionMask transferred_selection = this.selection;
 		ErosionDilatation dilatation1 = new ErosionDilatation(transferred_selection,
 				kernel_size, getImageWidth(), getImageHeight(), true);
 		
@@ -270,48 +444,216 @@ public class Segmentation_16Bit implements PlugInFilter {
 		replaceSelection(dilatation1.getFinalSelection());
 	}
 
+	// opening of the current selection (erosion, then dilatation)
+	public void open_selection(int kernel_size) {
+		replaceSelection(Morphology.open(this.selection, kernel_size));
+	}
+
+	// closing of the current selection (dilatation, then erosion)
+	public void close_selection(int kernel_size) {
+		replaceSelection(Morphology.close(this.selection, kernel_size));
+	}
+
 	// clear the currently selected material
 	public void clearLabel(byte labelIndex) {
-		final int N = getNumPixels();
-		for (int i = 0; i < N; i++) {
-			if ((labels[i] & 0xff) == labelIndex)
-				labels[i] = 0;
-		}
+		invalidate(labelMap.clear(labelIndex & 0xff));
+		labelsChanged();
 	}
 
 	// save the current selection as a material
 	public void saveSelectionAsLabel(byte labelIndex) {
-		final int N = getNumPixels();
-		clearLabel(labelIndex);
-		for (int i = 0; i < N; i++) {
-			if (selection[i])
-				labels[i] = labelIndex;
-		}
+		invalidate(labelMap.save(selection, labelIndex & 0xff));
+		labelsChanged();
 	}
 
 	// select a material and make it the current selection
 	public void selectLabel(byte labelIndex) {
-		final int N = getNumPixels();
 		clearSelection();
-		for (int i = 0; i < N; i++) {
-			if (labels[i] == labelIndex)
-				selection[i] = true;
+		labelMap.select(labelIndex & 0xff, selection);
+		invalidate(selection.getBounds());
+	}
+
+	// number of pixels carrying a label
+	public int getLabelCount(byte labelIndex) {
+		return labelMap.getCount(labelIndex & 0xff);
+	}
+
+	// bounding box of a label, null if it is not used
+	public Rectangle getLabelBounds(byte labelIndex) {
+		return labelMap.getBounds(labelIndex & 0xff);
+	}
+
+	// add a seed for growSeeds()
+	public void addSeed(PixelInfo pixel, byte labelIndex) {
+		if (numSeeds == seedPixels.length) {
+			seedPixels = Arrays.copyOf(seedPixels, numSeeds * 2);
+			seedLabels = Arrays.copyOf(seedLabels, numSeeds * 2);
+		}
+		seedPixels[numSeeds] = pixel.idx;
+		seedLabels[numSeeds] = labelIndex;
+		numSeeds++;
+	}
+
+	public int getNumSeeds() {
+		return numSeeds;
+	}
+
+	public void clearSeeds() {
+		numSeeds = 0;
+	}
+
+	// grow all seeds at once, competing for the pixels between them (see
+	// MultiSeedRegionGrowing), and add every region to the label of its
+	// seed. the seeds are used up. returns the number of pixels grown.
+	public int growSeeds() {
+		if (numSeeds == 0)
+			return 0;
+		SelectionMask[] regions = new SelectionMask[LabelMap.MAX_LABELS + 1];
+		for (int s = 0; s < numSeeds; s++) {
+			int label = seedLabels[s] & 0xff;
+			if (regions[label] == null)
+				regions[label] = new SelectionMask(getImageWidth(),
+						getImageHeight());
+		}
+		int grown = regionGrowing.growSeeds(
+				Arrays.copyOf(seedPixels, numSeeds),
+				Arrays.copyOf(seedLabels, numSeeds), regions);
+		for (int label = 1; label < regions.length; label++) {
+			if (regions[label] == null)
+				continue;
+			// the label keeps its pixels
+			labelMap.select(label, regions[label]);
+			invalidate(labelMap.save(regions[label], label));
 		}
+		labelsChanged();
+		numSeeds = 0;
+		return grown;
 	}
 
-	/*
-	 * interpolate between two RGB colors rgb1 and rgb2 interpol is a weight
-	 * between 0.0 and 1.0
-	 */
-	static int interpolRGB(int rgb1, int rgb2, double interpol) {
-		byte red = (byte) (((rgb1 & 0xff0000) >> 16) * (1.0 - interpol) + ((rgb2 & 0xff0000) >> 16)
-				* interpol);
-		byte green = (byte) (((rgb1 & 0x00ff00) >> 8) * (1.0 - interpol) + ((rgb2 & 0x00ff00) >> 8)
-				* interpol);
-		byte blue = (byte) (((rgb1 & 0x0000ff)) * (1.0 - interpol) + ((rgb2 & 0x0000ff))
-				* interpol);
-		return ((red << 16) & 0xff0000) + ((green << 8) & 0x00ff00)
-				+ (blue & 0x0000ff);
+	// all connected components of the pixels within the criteria of the
+	// grower (thresholds, gradient, labels and neighborhood)
+	public ConnectedComponents findComponents() {
+		return regionGrowing.findComponents();
+	}
+
+	// each of the n largest components becomes a new label (as far as
+	// there are free labels). returns the ids of the components that were
+	// labeled, the new labels follow the existing ones in this order.
+	public int[] keepLargestComponents(ConnectedComponents components, int n) {
+		int[] largest = components.largest(n);
+		SelectionMask mask = new SelectionMask(getImageWidth(),
+				getImageHeight());
+		int kept = 0;
+		for (; kept < largest.length; kept++) {
+			int label = addLabel();
+			if (label < 0)
+				break;
+			mask.clear();
+			components.select(largest[kept], mask);
+			invalidate(labelMap.save(mask, label));
+		}
+		if (kept > 0)
+			labelsChanged();
+		return Arrays.copyOf(largest, kept);
+	}
+
+	// add a label with a generated name and color. returns its index, or -1
+	// if all labels are in use.
+	public int addLabel() {
+		final int n = labelNames.length;
+		if (n >= LabelMap.MAX_LABELS)
+			return -1;
+		String[] names = Arrays.copyOf(labelNames, n + 1);
+		names[n] = "Label " + (n + 1);
+		int[] colors = Arrays.copyOf(labelColors, n + 1);
+		colors[n] = generateLabelColor(n);
+		labelNames = names;
+		labelColors = colors;
+		return n + 1;
+	}
+
+	// well distinguishable colors for further labels: hues in steps of the
+	// golden ratio
+	static int generateLabelColor(int i) {
+		float hue = (i * 0.618034f) % 1f;
+		return Color.HSBtoRGB(hue, 0.75f, 1f) & 0xffffff;
+	}
+
+	// save labels and parameters, see SegmentationSession
+	public void saveSession(Path file) throws IOException {
+		SegmentationSession session = new SegmentationSession();
+		session.width = getImageWidth();
+		session.height = getImageHeight();
+		session.depth = 1;
+		session.window_center = window_center;
+		session.window_width = window_width;
+		session.min_threshold = regionGrowing.min_threshold;
+		session.max_threshold = regionGrowing.max_threshold;
+		session.useThresholdRange = regionGrowing.useThresholdRange;
+		session.stopAtOtherSegmentedRegions = regionGrowing.stopAtOtherSegmentedRegions;
+		session.useGradient = regionGrowing.useGradient;
+		session.gradientThreshold = regionGrowing.gradientThreshold;
+		session.useAdaptive = regionGrowing.useAdaptive;
+		session.adaptiveSigma = regionGrowing.adaptiveSigma;
+		session.neighSize = regionGrowing.neighSize;
+		session.engine = regionGrowing.engine;
+		session.labelNames = labelNames;
+		session.labelColors = labelColors;
+		session.labels = new byte[][] { labelMap.getPixels() };
+		session.write(file);
+	}
+
+	// restore labels and parameters saved by saveSession(). the selection
+	// is cleared and the undo history starts anew.
+	public void loadSession(Path file) throws IOException {
+		SegmentationSession session = SegmentationSession.read(file);
+		if (session.width != getImageWidth()
+				|| session.height != getImageHeight())
+			throw new IOException("the session is for a " + session.width
+					+ "x" + session.height + " image");
+		if (session.depth != 1)
+			throw new IOException("the session has " + session.depth
+					+ " slices, expected 1");
+		if (indexOf(neighSizeValues, session.neighSize) < 0)
+			throw new IOException("unknown neighborhood size "
+					+ session.neighSize);
+		if (indexOf(growEngineValues, session.engine) < 0)
+			throw new IOException("unknown growing engine " + session.engine);
+
+		window_center = session.window_center;
+		window_width = session.window_width;
+		regionGrowing.min_threshold = session.min_threshold;
+		regionGrowing.max_threshold = session.max_threshold;
+		regionGrowing.useThresholdRange = session.useThresholdRange;
+		regionGrowing.stopAtOtherSegmentedRegions = session.stopAtOtherSegmentedRegions;
+		regionGrowing.useGradient = session.useGradient;
+		regionGrowing.gradientThreshold = session.gradientThreshold;
+		regionGrowing.useAdaptive = session.useAdaptive;
+		if (session.adaptiveSigma > 0)
+			regionGrowing.adaptiveSigma = session.adaptiveSigma;
+		regionGrowing.neighSize = session.neighSize;
+		regionGrowing.engine = session.engine;
+		if (session.labelNames.length > 0) {
+			labelNames = session.labelNames;
+			labelColors = session.labelColors;
+		}
+
+		commitEdit();
+		selection.clear();
+		labelMap.load(session.labels[0]);
+		labelsChanged();
+		history.reset(selection, labelMap.getPixels());
+		pendingEdit = null;
+		if (renderer != null)
+			renderer.invalidateAll();
+	}
+
+	private static int indexOf(byte[] values, byte value) {
+		for (int i = 0; i < values.length; i++) {
+			if (values[i] == value)
+				return i;
+		}
+		return -1;
 	}
 
 	// getter for the output image's window
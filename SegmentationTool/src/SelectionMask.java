@@ -0,0 +1,317 @@
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// bit mask of selected pixels, 64 pixels per long. every image row starts
+// at a new word, so row based algorithms (spans, morphology) never have to
+// deal with bits of two rows in one word. bits beyond the row width are
+// always kept zero.
+// the mask also keeps a box of rows and words outside of which all bits are
+// zero. it grows with every pixel that is set and is only shrunk to the
+// selection by getBounds(), so removing pixels may leave it too large, but
+// never too small. set operations, clearing, copying and counting only
+// visit the box, so their cost follows the region instead of the image.
+public class SelectionMask {
+
+	// image dimensions
+	public final int width, height;
+
+	// number of words used per image row
+	public final int wordsPerRow;
+
+	// the bits, row by row
+	final long[] words;
+
+	// box of possibly selected bits: rows minRow <= y <= maxRow, words
+	// minWord <= w <= maxWord of each row (empty if minRow > maxRow)
+	private int minRow, maxRow, minWord, maxWord;
+
+	// empty mask for an image of the given size
+	public SelectionMask(int width, int height) {
+		this.width = width;
+		this.height = height;
+		this.wordsPerRow = (width + 63) >>> 6;
+		this.words = new long[wordsPerRow * height];
+		resetBox();
+	}
+
+	// query a pixel by its index in the pixel buffer
+	public boolean get(int idx) {
+		return get(idx % width, idx / width);
+	}
+
+	// query a pixel by its position
+	public boolean get(int x, int y) {
+		return (words[y * wordsPerRow + (x >>> 6)] & (1L << x)) != 0;
+	}
+
+	// select a pixel by its index in the pixel buffer
+	public void set(int idx) {
+		set(idx % width, idx / width);
+	}
+
+	// select a pixel by its position
+	public void set(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= (1L << x);
+		if (y < minRow)
+			minRow = y;
+		if (y > maxRow)
+			maxRow = y;
+		if ((x >>> 6) < minWord)
+			minWord = x >>> 6;
+		if ((x >>> 6) > maxWord)
+			maxWord = x >>> 6;
+	}
+
+	// select a pixel without growing the box. for writers on several
+	// threads, which report what they wrote through include() afterwards.
+	void setBit(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] |= (1L << x);
+	}
+
+	// deselect a pixel by its position
+	public void clear(int x, int y) {
+		words[y * wordsPerRow + (x >>> 6)] &= ~(1L << x);
+	}
+
+	// select the pixels x0 <= x < x1 in row y
+	public void setRange(int y, int x0, int x1) {
+		if (x0 >= x1)
+			return;
+		final int row = y * wordsPerRow;
+		final int first = row + (x0 >>> 6);
+		final int last = row + ((x1 - 1) >>> 6);
+		final long firstMask = -1L << x0;
+		final long lastMask = -1L >>> -x1;
+		includeBox(y, y, x0 >>> 6, (x1 - 1) >>> 6);
+		if (first == last) {
+			words[first] |= firstMask & lastMask;
+			return;
+		}
+		words[first] |= firstMask;
+		for (int i = first + 1; i < last; i++)
+			words[i] = -1L;
+		words[last] |= lastMask;
+	}
+
+	// first selected x >= fromX in row y, or -1 if there is none
+	public int nextSetBit(int y, int fromX) {
+		if (fromX >= width)
+			return -1;
+		final int row = y * wordsPerRow;
+		int i = fromX >>> 6;
+		long word = words[row + i] & (-1L << fromX);
+		while (true) {
+			if (word != 0)
+				return (i << 6) + Long.numberOfTrailingZeros(word);
+			if (++i == wordsPerRow)
+				return -1;
+			word = words[row + i];
+		}
+	}
+
+	// first unselected x >= fromX in row y, or width if there is none
+	public int nextClearBit(int y, int fromX) {
+		if (fromX >= width)
+			return width;
+		final int row = y * wordsPerRow;
+		int i = fromX >>> 6;
+		long word = ~words[row + i] & (-1L << fromX);
+		while (true) {
+			if (word != 0)
+				return Math.min(width, (i << 6) + Long.numberOfTrailingZeros(word));
+			if (++i == wordsPerRow)
+				return width;
+			word = ~words[row + i];
+		}
+	}
+
+	// add all pixels of other to this mask
+	public void or(SelectionMask other) {
+		final long[] o = other.words;
+		for (int y = other.minRow; y <= other.maxRow; y++) {
+			final int row = y * wordsPerRow;
+			PixelKernels.or(words, o, row + other.minWord, row
+					+ other.maxWord + 1);
+		}
+		if (other.minRow <= other.maxRow)
+			includeBox(other.minRow, other.maxRow, other.minWord,
+					other.maxWord);
+	}
+
+	// keep only pixels that are also selected in other
+	public void and(SelectionMask other) {
+		// all bits of other outside its box are zero, so the loop clears
+		// what lies outside of it
+		final long[] o = other.words;
+		for (int y = minRow; y <= maxRow; y++) {
+			final int row = y * wordsPerRow;
+			PixelKernels.and(words, o, row + minWord, row + maxWord + 1);
+		}
+		minRow = Math.max(minRow, other.minRow);
+		maxRow = Math.min(maxRow, other.maxRow);
+		minWord = Math.max(minWord, other.minWord);
+		maxWord = Math.min(maxWord, other.maxWord);
+		if (minRow > maxRow || minWord > maxWord)
+			resetBox();
+	}
+
+	// remove all pixels of other from this mask
+	public void andNot(SelectionMask other) {
+		final long[] o = other.words;
+		final int w0 = Math.max(minWord, other.minWord);
+		final int w1 = Math.min(maxWord, other.maxWord);
+		final int y1 = Math.min(maxRow, other.maxRow);
+		for (int y = Math.max(minRow, other.minRow); y <= y1; y++) {
+			final int row = y * wordsPerRow;
+			PixelKernels.andNot(words, o, row + w0, row + w1 + 1);
+		}
+	}
+
+	// deselect all pixels
+	public void clear() {
+		for (int y = minRow; y <= maxRow; y++) {
+			final int row = y * wordsPerRow;
+			Arrays.fill(words, row + minWord, row + maxWord + 1, 0L);
+		}
+		resetBox();
+	}
+
+	// number of selected pixels
+	public int cardinality() {
+		int count = 0;
+		for (int y = minRow; y <= maxRow; y++) {
+			final int row = y * wordsPerRow;
+			count += PixelKernels.bitCount(words, row + minWord, row
+					+ maxWord + 1);
+		}
+		return count;
+	}
+
+	// true if no pixel is selected
+	public boolean isEmpty() {
+		for (int y = minRow; y <= maxRow; y++) {
+			final int row = y * wordsPerRow;
+			for (int i = row + minWord; i <= row + maxWord; i++) {
+				if (words[i] != 0)
+					return false;
+			}
+		}
+		return true;
+	}
+
+	// take over all bits of a mask of the same size
+	public void copyFrom(SelectionMask other) {
+		clear();
+		for (int y = other.minRow; y <= other.maxRow; y++) {
+			final int i = y * wordsPerRow + other.minWord;
+			System.arraycopy(other.words, i, words, i, other.maxWord
+					- other.minWord + 1);
+		}
+		minRow = other.minRow;
+		maxRow = other.maxRow;
+		minWord = other.minWord;
+		maxWord = other.maxWord;
+	}
+
+	// independent copy of this mask
+	public SelectionMask copy() {
+		SelectionMask copy = new SelectionMask(width, height);
+		copy.copyFrom(this);
+		return copy;
+	}
+
+	// smallest rectangle containing all selected pixels, null if empty. the
+	// box is shrunk to it on the way.
+	public Rectangle getBounds() {
+		int minX = width, maxX = -1, minY = -1, maxY = -1;
+		for (int y = minRow; y <= maxRow; y++) {
+			final int row = y * wordsPerRow;
+			int first = -1, last = -1;
+			for (int i = minWord; i <= maxWord; i++) {
+				if (words[row + i] != 0) {
+					if (first < 0)
+						first = i;
+					last = i;
+				}
+			}
+			if (first < 0)
+				continue;
+			if (minY < 0)
+				minY = y;
+			maxY = y;
+			minX = Math.min(minX, (first << 6)
+					+ Long.numberOfTrailingZeros(words[row + first]));
+			maxX = Math.max(maxX, (last << 6) + 63
+					- Long.numberOfLeadingZeros(words[row + last]));
+		}
+		if (minY < 0) {
+			resetBox();
+			return null;
+		}
+		minRow = minY;
+		maxRow = maxY;
+		minWord = minX >>> 6;
+		maxWord = maxX >>> 6;
+		return new Rectangle(minX, minY, maxX - minX + 1, maxY - minY + 1);
+	}
+
+	// grow the box to cover r, after bits were written directly (setBit(),
+	// words). synchronized for writers on several threads.
+	synchronized void include(Rectangle r) {
+		if (r == null || r.isEmpty())
+			return;
+		includeBox(r.y, r.y + r.height - 1, r.x >>> 6,
+				(r.x + r.width - 1) >>> 6);
+	}
+
+	// the box covers the whole mask
+	void includeAll() {
+		includeBox(0, height - 1, 0, wordsPerRow - 1);
+	}
+
+	// copy of rows y0 <= y < y1 and words w0 <= w < w1 as a mask of its own,
+	// whose pixel x corresponds to pixel x + 64 * w0 of this mask
+	SelectionMask crop(int y0, int y1, int w0, int w1) {
+		SelectionMask part = new SelectionMask(Math.min(width, w1 << 6)
+				- (w0 << 6), y1 - y0);
+		for (int y = y0; y < y1; y++)
+			System.arraycopy(words, y * wordsPerRow + w0, part.words, (y - y0)
+					* part.wordsPerRow, w1 - w0);
+		part.includeAll();
+		return part;
+	}
+
+	// OR the box of a cropped mask back in at rows from y0, words from w0
+	void paste(SelectionMask part, int y0, int w0) {
+		if (part.minRow > part.maxRow)
+			return;
+		final int n = part.maxWord - part.minWord + 1;
+		for (int y = part.minRow; y <= part.maxRow; y++) {
+			final int src = y * part.wordsPerRow + part.minWord;
+			final int dst = (y + y0) * wordsPerRow + w0 + part.minWord;
+			for (int i = 0; i < n; i++)
+				words[dst + i] |= part.words[src + i];
+		}
+		includeBox(part.minRow + y0, part.maxRow + y0, part.minWord + w0,
+				part.maxWord + w0);
+	}
+
+	private void includeBox(int y0, int y1, int w0, int w1) {
+		minRow = Math.min(minRow, y0);
+		maxRow = Math.max(maxRow, y1);
+		minWord = Math.min(minWord, w0);
+		maxWord = Math.max(maxWord, w1);
+	}
+
+	private void resetBox() {
+		minRow = height;
+		maxRow = -1;
+		minWord = wordsPerRow;
+		maxWord = -1;
+	}
+}
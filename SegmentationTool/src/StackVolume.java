@@ -0,0 +1,50 @@
+// voxels and labels held on the heap, one array per slice (the voxel arrays
+// are those of an ImageJ stack)
+public class StackVolume implements VoxelVolume, LabelVolume {
+
+	private final int width, height;
+	private final short[][] voxels;
+	private final byte[][] labels;
+
+	StackVolume(int width, int height, short[][] voxels, byte[][] labels) {
+		this.width = width;
+		this.height = height;
+		this.voxels = voxels;
+		this.labels = labels;
+	}
+
+	@Override
+	public int getWidth() {
+		return width;
+	}
+
+	@Override
+	public int getHeight() {
+		return height;
+	}
+
+	@Override
+	public int getDepth() {
+		return voxels.length;
+	}
+
+	@Override
+	public int getVoxel(int x, int y, int z) {
+		return voxels[z][x + y * width] & 0xffff;
+	}
+
+	@Override
+	public int getLabel(int x, int y, int z) {
+		return labels[z][x + y * width] & 0xff;
+	}
+
+	@Override
+	public void setLabel(int x, int y, int z, int label) {
+		labels[z][x + y * width] = (byte) label;
+	}
+
+	// the label array of one slice, e.g. for building an ImageJ stack
+	public byte[] getLabelSlice(int z) {
+		return labels[z];
+	}
+}
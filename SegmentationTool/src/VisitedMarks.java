@@ -0,0 +1,43 @@
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// visited marks for repeated passes over the same image (one per grow
+// call), owned by the grower and never reallocated. a pixel is visited if
+// its stamp equals the number of the current pass, so starting a pass is
+// an increment instead of clearing the marks. stamps are bytes to keep the
+// marks at one byte per pixel; after 255 passes the stamps wrap and are
+// cleared once.
+class VisitedMarks {
+
+	private final byte[] stamps;
+	private byte epoch = 0;
+
+	VisitedMarks(int size) {
+		this.stamps = new byte[size];
+	}
+
+	// start a new pass: no pixel is visited
+	void next() {
+		if (++epoch == 0) {
+			Arrays.fill(stamps, (byte) 0);
+			epoch = 1;
+		}
+	}
+
+	boolean get(int idx) {
+		return stamps[idx] == epoch;
+	}
+
+	void set(int idx) {
+		stamps[idx] = epoch;
+	}
+
+	// mark the pixels from <= idx < to
+	void setRange(int from, int to) {
+		Arrays.fill(stamps, from, to, epoch);
+	}
+}
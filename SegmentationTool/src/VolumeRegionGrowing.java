@@ -0,0 +1,228 @@
+import java.awt.Rectangle;
+import java.util.Arrays;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// region growing through a whole stack of 16 bit slices. voxels are
+// connected through their 6 faces, 18 faces+edges or all 26 neighbors.
+// works like the scanline engine of RegionGrowing: spans along x are
+// filled at once, the 4 or 8 neighboring rows (y+-1 in the same slice,
+// z+-1 in the neighboring slices) are then scanned for new spans.
+// selections are one bit mask per slice, created only for the slices the
+// region reaches. voxels and labels are read through
+// VoxelVolume/LabelVolume, so the same growing works on stacks in memory
+// and on memory mapped volumes.
+public class VolumeRegionGrowing {
+
+	// inclusion criterium 1: threshold range
+	public boolean useThresholdRange = true;
+	public int min_threshold, max_threshold;
+
+	// inclusion criterium 2: already belonging to other segmented region?
+	public boolean stopAtOtherSegmentedRegions = true;
+
+	// 6, 18 or 26 connected voxels
+	public int connectivity = 6;
+
+	// the volume to be processed
+	private final VoxelVolume voxels;
+	private final LabelVolume labels;
+	final int width, height, depth;
+
+	// seed stack of (slice, index within slice) pairs, grown if necessary
+	private int[] spanStack = new int[2048];
+
+	// instrumentation, see SegmentationMetrics
+	private static final SegmentationMetrics.Metric growTime = SegmentationMetrics
+			.timer("grow3d.time");
+	private static final SegmentationMetrics.Metric growVoxels = SegmentationMetrics
+			.histogram("grow3d.voxels");
+
+	VolumeRegionGrowing(VoxelVolume voxels, LabelVolume labels) {
+		this.width = voxels.getWidth();
+		this.height = voxels.getHeight();
+		this.depth = voxels.getDepth();
+		this.voxels = voxels;
+		this.labels = labels;
+		this.min_threshold = 0;
+		this.max_threshold = 0xffff;
+	}
+
+	// start growing at voxel (x,y,z). all voxels of the connected region are
+	// set in the per-slice selection masks, the start voxel itself is
+	// selected but the growing starts at its neighbors (as in 2D).
+	// the masks have to be empty or null: they also serve as the visited
+	// marks, so no second volume sized mask is needed. null masks are
+	// created when the region reaches their slice, so a region of a few
+	// slices needs only a few masks, however deep the volume is.
+	// returns number of voxels in the identified region
+	public int grow(int x, int y, int z, SelectionMask[] selection) {
+
+		final long startTime = growTime.start();
+		final SelectionMask[] visited = selection;
+		long countSelected = 0;
+
+		// seed the fill with every neighbor of the start voxel
+		int top = 0;
+		for (int dz = -1; dz <= 1; dz++) {
+			for (int dy = -1; dy <= 1; dy++) {
+				for (int dx = -1; dx <= 1; dx++) {
+					int steps = Math.abs(dx) + Math.abs(dy) + Math.abs(dz);
+					if (steps == 0 || !isNeighbor(steps))
+						continue;
+					int nx = x + dx, ny = y + dy, nz = z + dz;
+					if (nx >= 0 && nx < width && ny >= 0 && ny < height
+							&& nz >= 0 && nz < depth)
+						top = push(top, nz, nx + ny * width);
+				}
+			}
+		}
+
+		// neighboring rows (dy, dz) of a span, and whether their scan range
+		// reaches one voxel further left and right
+		final int[] rowDy = { -1, 1, 0, 0, -1, -1, 1, 1 };
+		final int[] rowDz = { 0, 0, -1, 1, -1, 1, -1, 1 };
+		final int numRows = (connectivity == 6) ? 4 : 8;
+
+		while (top > 0) {
+			final int idx = spanStack[--top];
+			final int sz = spanStack[--top];
+			final int sy = idx / width;
+			final int sx = idx - sy * width;
+			if ((visited[sz] != null && visited[sz].get(sx, sy))
+					|| !isFillable(sx, sy, sz))
+				continue;
+			final SelectionMask mask = slice(visited, sz);
+
+			// extend the span to the left and right within this row
+			int left = sx;
+			while (left > 0 && !mask.get(left - 1, sy)
+					&& isFillable(left - 1, sy, sz))
+				left--;
+			int right = sx;
+			while (right < width - 1 && !mask.get(right + 1, sy)
+					&& isFillable(right + 1, sy, sz))
+				right++;
+
+			mask.setRange(sy, left, right + 1);
+			countSelected += right - left + 1;
+
+			for (int r = 0; r < numRows; r++) {
+				final int ny = sy + rowDy[r];
+				final int nz = sz + rowDz[r];
+				if (ny < 0 || ny >= height || nz < 0 || nz >= depth)
+					continue;
+				// rows differing in one coordinate also touch diagonally
+				// (18 and 26), rows differing in two only for 26
+				final boolean expand = (connectivity == 26)
+						|| (connectivity == 18 && (rowDy[r] == 0 || rowDz[r] == 0));
+				final int from = (expand && left > 0) ? left - 1 : left;
+				final int to = (expand && right < width - 1) ? right + 1 : right;
+				top = pushSpans(top, nz, ny, from, to, visited[nz]);
+			}
+		}
+
+		// select the start voxel last, it must not block its own region
+		slice(selection, z).set(x, y);
+
+		growTime.stop(startTime);
+		growVoxels.record(countSelected);
+
+		return (int) Math.min(Integer.MAX_VALUE, countSelected);
+	}
+
+	// mask of slice z, created when the region first reaches it
+	private SelectionMask slice(SelectionMask[] selection, int z) {
+		if (selection[z] == null)
+			selection[z] = new SelectionMask(width, height);
+		return selection[z];
+	}
+
+	// does a neighbor "steps" unit moves away count for the connectivity?
+	private boolean isNeighbor(int steps) {
+		if (connectivity == 6)
+			return steps == 1;
+		if (connectivity == 18)
+			return steps <= 2;
+		return true;
+	}
+
+	// push one seed for each run of fillable voxels in row y of slice z
+	// (visited is null if the region has not reached the slice yet)
+	private int pushSpans(int top, int z, int y, int from, int to,
+			SelectionMask visited) {
+		boolean inRun = false;
+		for (int x = from; x <= to; x++) {
+			if ((visited == null || !visited.get(x, y)) && isFillable(x, y, z)) {
+				if (!inRun) {
+					top = push(top, z, x + y * width);
+					inRun = true;
+				}
+			} else {
+				inRun = false;
+			}
+		}
+		return top;
+	}
+
+	private int push(int top, int z, int idx) {
+		if (top + 2 > spanStack.length) {
+			spanStack = Arrays.copyOf(spanStack, spanStack.length * 2);
+		}
+		spanStack[top] = z;
+		spanStack[top + 1] = idx;
+		return top + 2;
+	}
+
+	// decide whether a voxel should be included or not
+	public boolean shouldVoxelBeIncluded(int x, int y, int z) {
+		int value = voxels.getVoxel(x, y, z);
+		return useThresholdRange && value >= min_threshold
+				&& value <= max_threshold;
+	}
+
+	// included by the criteria and not protected by another label
+	boolean isFillable(int x, int y, int z) {
+		return shouldVoxelBeIncluded(x, y, z)
+				&& !(stopAtOtherSegmentedRegions && labels.getLabel(x, y, z) != 0);
+	}
+
+	// assign labelIndex to all selected voxels (null masks select nothing)
+	public void saveSelectionAsLabel(SelectionMask[] selection, int labelIndex) {
+		for (int z = 0; z < depth; z++) {
+			if (selection[z] == null)
+				continue;
+			Rectangle b = selection[z].getBounds();
+			if (b == null)
+				continue;
+			for (int y = b.y; y < b.y + b.height; y++) {
+				for (int x = selection[z].nextSetBit(y, b.x); x >= 0; x = selection[z]
+						.nextSetBit(y, x + 1))
+					labels.setLabel(x, y, z, labelIndex);
+			}
+		}
+	}
+
+	// remove labelIndex from all voxels carrying it
+	public void clearLabel(int labelIndex) {
+		if (labels instanceof StackVolume) {
+			for (int z = 0; z < depth; z++) {
+				byte[] slice = ((StackVolume) labels).getLabelSlice(z);
+				PixelKernels.replace(slice, 0, slice.length,
+						(byte) labelIndex, (byte) 0);
+			}
+			return;
+		}
+		for (int z = 0; z < depth; z++) {
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (labels.getLabel(x, y, z) == labelIndex)
+						labels.setLabel(x, y, z, 0);
+				}
+			}
+		}
+	}
+}
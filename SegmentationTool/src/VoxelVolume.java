@@ -0,0 +1,14 @@
+// read access to the 16 bit voxels of a volume, wherever they are stored
+// (ImageJ stack on the heap, memory mapped file, ...)
+public interface VoxelVolume {
+
+	public int getWidth();
+
+	public int getHeight();
+
+	public int getDepth();
+
+	// unsigned 16 bit value of voxel (x,y,z)
+	public int getVoxel(int x, int y, int z);
+
+}
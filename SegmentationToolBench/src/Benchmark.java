@@ -0,0 +1,25 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// one measured operation of the benchmark suite. setUp() is called once
+// before warm-up, run() is the operation itself and returns some value
+// derived from its result, which the runner consumes so the JIT cannot drop
+// the work. reset() restores the state run() depends on and is not measured.
+abstract class Benchmark {
+
+	final String name;
+
+	Benchmark(String name) {
+		this.name = name;
+	}
+
+	void setUp() {
+	}
+
+	void reset() {
+	}
+
+	abstract long run();
+}
@@ -0,0 +1,133 @@
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// runs benchmarks the way JMH does in its default mode, without the
+// dependency: some timed warm-up iterations for the JIT, then timed
+// measurement iterations. for every benchmark it reports the throughput
+// (mean and standard deviation over the iterations), the time per
+// operation, the bytes allocated per operation by the calling thread and
+// the garbage collections during the measurement.
+class BenchmarkRunner {
+
+	// where the results are reported
+	private final PrintStream out;
+
+	private final int warmupIterations;
+	private final int measurementIterations;
+	private final long iterationNanos;
+
+	// allocation counter of the running thread, if the VM has one
+	private final com.sun.management.ThreadMXBean allocations;
+
+	// results are consumed here, so that no benchmark is optimized away
+	private long sink;
+
+	BenchmarkRunner(PrintStream out, int warmupIterations,
+			int measurementIterations, long iterationMillis) {
+		this.out = out;
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = measurementIterations;
+		this.iterationNanos = iterationMillis * 1000000L;
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads)
+						.isThreadAllocatedMemorySupported()) {
+			allocations = (com.sun.management.ThreadMXBean) threads;
+			allocations.setThreadAllocatedMemoryEnabled(true);
+		} else {
+			allocations = null;
+		}
+	}
+
+	void printHeader() {
+		out.println(String.format(Locale.ROOT,
+				"%-44s %14s %10s %12s %12s %6s %8s", "Benchmark", "ops/s",
+				"+-", "us/op", "B/op", "GCs", "GC ms"));
+	}
+
+	void run(Benchmark b) {
+		b.setUp();
+
+		for (int i = 0; i < warmupIterations; i++)
+			iteration(b, null);
+
+		long gcCount = gcCount(), gcMillis = gcMillis();
+		double[] opsPerSecond = new double[measurementIterations];
+		long[] totals = new long[3];
+		for (int i = 0; i < measurementIterations; i++) {
+			long[] it = new long[3];
+			iteration(b, it);
+			opsPerSecond[i] = it[0] * 1e9 / it[1];
+			for (int j = 0; j < 3; j++)
+				totals[j] += it[j];
+		}
+		gcCount = gcCount() - gcCount;
+		gcMillis = gcMillis() - gcMillis;
+
+		double mean = 0;
+		for (double v : opsPerSecond)
+			mean += v;
+		mean /= opsPerSecond.length;
+		double var = 0;
+		for (double v : opsPerSecond)
+			var += (v - mean) * (v - mean);
+		double stddev = (opsPerSecond.length > 1) ? Math.sqrt(var
+				/ (opsPerSecond.length - 1)) : 0;
+
+		String bytesPerOp = (allocations != null) ? String.valueOf(totals[2]
+				/ totals[0]) : "n/a";
+		out.println(String.format(Locale.ROOT,
+				"%-44s %14.2f %10.2f %12.2f %12s %6d %8d", b.name, mean,
+				stddev, totals[1] / 1e3 / totals[0], bytesPerOp, gcCount,
+				gcMillis));
+	}
+
+	// run b repeatedly for one iteration. only run() is timed and counted,
+	// result receives operations, nanoseconds and allocated bytes
+	private void iteration(Benchmark b, long[] result) {
+		final long threadId = Thread.currentThread().getId();
+		long ops = 0, nanos = 0, bytes = 0;
+		while (nanos < iterationNanos) {
+			b.reset();
+			long allocatedBefore = (allocations != null) ? allocations
+					.getThreadAllocatedBytes(threadId) : 0;
+			long start = System.nanoTime();
+			sink += b.run();
+			nanos += System.nanoTime() - start;
+			if (allocations != null)
+				bytes += allocations.getThreadAllocatedBytes(threadId)
+						- allocatedBefore;
+			ops++;
+		}
+		if (result != null) {
+			result[0] = ops;
+			result[1] = nanos;
+			result[2] = bytes;
+		}
+	}
+
+	private static long gcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			count += Math.max(0, gc.getCollectionCount());
+		return count;
+	}
+
+	private static long gcMillis() {
+		long millis = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory
+				.getGarbageCollectorMXBeans())
+			millis += Math.max(0, gc.getCollectionTime());
+		return millis;
+	}
+}
@@ -0,0 +1,485 @@
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import ij.ImagePlus;
+import ij.io.Opener;
+import ij.process.ShortProcessor;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// benchmark suite for the hot paths of the segmentation tool: region
+// growing (all engines, 4 and 8 neighborhood, a small and a huge region,
+// adaptive range, several seeds at once), threshold sweeps on the
+// component tree and its construction, connected component labeling,
+// erosion/dilatation with growing kernels and on small regions, rendering
+// of the output image, the min/max analysis, the gradient magnitude, the
+// pixel kernels and the label/selection operations. runs headless on
+// synthetic 2k and 4k images and on the bundled img/ slices.
+//
+// usage, with ij.jar and the compiled plugin classes on the class path:
+// java -cp ij.jar:SegmentationTool/plugins:SegmentationToolBench/bin
+// SegmentationBenchmarks [options] [image files or directories]
+// -wi n warm-up iterations (default 3)
+// -i n measurement iterations (default 5)
+// -t ms duration of one iteration (default 500)
+// -f text only run benchmarks whose name contains text
+// -sizes a,b,... edge lengths of the synthetic images (default 2048,4096)
+// without image arguments, SegmentationTool/img is used if it is found.
+public class SegmentationBenchmarks {
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		int warmup = 3, iterations = 5;
+		long millis = 500;
+		String filter = null;
+		int[] sizes = { 2048, 4096 };
+		List<File> inputs = new ArrayList<File>();
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("-wi")) {
+				warmup = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-i")) {
+				iterations = Integer.parseInt(args[++i]);
+			} else if (args[i].equals("-t")) {
+				millis = Long.parseLong(args[++i]);
+			} else if (args[i].equals("-f")) {
+				filter = args[++i];
+			} else if (args[i].equals("-sizes")) {
+				String[] parts = args[++i].split(",");
+				sizes = new int[parts.length];
+				for (int j = 0; j < parts.length; j++)
+					sizes[j] = Integer.parseInt(parts[j].trim());
+			} else {
+				inputs.add(new File(args[i]));
+			}
+		}
+		if (inputs.isEmpty()) {
+			for (String dir : new String[] { "SegmentationTool/img",
+					"../SegmentationTool/img" }) {
+				if (new File(dir).isDirectory()) {
+					inputs.add(new File(dir));
+					break;
+				}
+			}
+		}
+
+		PrintStream out = System.out;
+		BenchmarkRunner runner = new BenchmarkRunner(out, warmup,
+				iterations, millis);
+		runner.printHeader();
+		for (int size : sizes) {
+			run(runner, "synthetic" + size, createSynthetic(size, size), size,
+					size, filter);
+		}
+		for (File file : listImages(inputs)) {
+			ImagePlus imp = new Opener().openImage(file.getPath());
+			if (imp == null || imp.getBitDepth() != 16) {
+				out.println("skipped " + file + " (no 16 bit image)");
+				continue;
+			}
+			run(runner, file.getName(), (short[]) imp.getProcessor()
+					.getPixels(), imp.getWidth(), imp.getHeight(), filter);
+		}
+		System.exit(0);
+	}
+
+	// run all (matching) benchmarks for one image
+	private static void run(BenchmarkRunner runner, String image,
+			short[] pixels, int width, int height, String filter) {
+		for (Benchmark b : createBenchmarks(image, pixels, width, height)) {
+			if (filter == null || b.name.contains(filter))
+				runner.run(b);
+		}
+	}
+
+	// image files, directories are expanded (not recursively)
+	private static List<File> listImages(List<File> inputs) {
+		List<File> files = new ArrayList<File>();
+		for (File f : inputs) {
+			if (f.isDirectory()) {
+				File[] children = f.listFiles();
+				if (children == null)
+					continue;
+				Arrays.sort(children);
+				for (File c : children) {
+					if (c.isFile() && !c.getName().startsWith("."))
+						files.add(c);
+				}
+			} else {
+				files.add(f);
+			}
+		}
+		return files;
+	}
+
+	// smooth background with noise, and a bright disc at the center that
+	// forms the small region
+	static short[] createSynthetic(int width, int height) {
+		Random random = new Random(42);
+		short[] pixels = new short[width * height];
+		final int cx = width / 2, cy = height / 2;
+		final int r = Math.max(4, width / 32);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int v;
+				if ((x - cx) * (x - cx) + (y - cy) * (y - cy) <= r * r) {
+					v = 3000 + random.nextInt(16);
+				} else {
+					v = 1000
+							+ (int) (500 * Math.sin(x / 37.0) * Math
+									.cos(y / 53.0)) + random.nextInt(64);
+				}
+				pixels[x + y * width] = (short) v;
+			}
+		}
+		return pixels;
+	}
+
+	// all benchmarks for one image, sharing one headless plugin instance
+	static List<Benchmark> createBenchmarks(final String image,
+			final short[] pixels, final int width, final int height) {
+
+		final Segmentation_16Bit plugin = new Segmentation_16Bit();
+		final ImagePlus imp = new ImagePlus(image, new ShortProcessor(width,
+				height, pixels, null));
+		plugin.setup(null, imp);
+		plugin.initSegmentation(imp.getProcessor());
+		plugin.calculateOutputImage();
+
+		final int min = plugin.min_value, max = plugin.max_value;
+		final PixelInfo seed = PixelInfo.createFromXY(width / 2, height / 2,
+				width, height);
+		final int seedValue = pixels[seed.idx] & 0xffff;
+		final int band = Math.max(1, (max - min) / 100);
+
+		// bright structures of the image, input of morphology and label
+		// operations
+		final SelectionMask structures = new SelectionMask(width, height);
+		final int level = (min + max) / 2;
+		PixelKernels.threshold(pixels, width, height, level, 0xffff,
+				structures);
+
+		List<Benchmark> list = new ArrayList<Benchmark>();
+		final String prefix = image + "/";
+
+		list.add(new Benchmark(prefix + "findMinMaxPixelValue") {
+			long run() {
+				plugin.findMinMaxPixelValue();
+				return plugin.min_value + plugin.max_value;
+			}
+		});
+
+		list.add(new Benchmark(prefix + "thresholdMask") {
+			long run() {
+				PixelKernels.threshold(pixels, width, height, level, 0xffff,
+						structures);
+				return structures.cardinality();
+			}
+		});
+
+		list.add(new Benchmark(prefix + "labelReplace") {
+			final byte[] labels = new byte[width * height];
+
+			long run() {
+				return PixelKernels.replace(labels, 0, labels.length,
+						(byte) 0, (byte) 0);
+			}
+		});
+
+		list.add(new Benchmark(prefix + "gradientMagnitude") {
+			long run() {
+				return GradientMagnitude.compute(pixels, width, height).length;
+			}
+		});
+
+		// small region: narrow band around the seed value, huge region: the
+		// whole value range, i.e. the whole image
+		final String[] regions = { "small", "huge" };
+		final String[] engines = { "queue", "scanline", "parallel" };
+		for (int r = 0; r < regions.length; r++) {
+			final int lo = (r == 0) ? seedValue - band : min;
+			final int hi = (r == 0) ? seedValue + band : max;
+			for (final byte neighSize : Segmentation_16Bit.neighSizeValues) {
+				for (int e = 0; e < engines.length; e++) {
+					final byte engine = Segmentation_16Bit.growEngineValues[e];
+					final SelectionMask selection = new SelectionMask(width,
+							height);
+					list.add(new Benchmark(prefix + "grow/" + regions[r] + "/"
+							+ neighSize + "/" + engines[e]) {
+						void setUp() {
+							plugin.regionGrowing.min_threshold = lo;
+							plugin.regionGrowing.max_threshold = hi;
+							plugin.regionGrowing.neighSize = neighSize;
+							plugin.regionGrowing.engine = engine;
+							plugin.regionGrowing.useComponentTree = false;
+							plugin.regionGrowing.useAdaptive = false;
+						}
+
+						void reset() {
+							selection.clear();
+						}
+
+						long run() {
+							return plugin.regionGrowing.grow(seed, selection);
+						}
+					});
+				}
+			}
+		}
+
+		// adaptive range from the statistics of the region, k = 2.5
+		for (final byte neighSize : Segmentation_16Bit.neighSizeValues) {
+			final SelectionMask selection = new SelectionMask(width, height);
+			list.add(new Benchmark(prefix + "grow/adaptive/" + neighSize) {
+				void setUp() {
+					plugin.regionGrowing.neighSize = neighSize;
+					plugin.regionGrowing.useAdaptive = true;
+					plugin.regionGrowing.adaptiveSigma = 2.5;
+				}
+
+				void reset() {
+					selection.clear();
+				}
+
+				long run() {
+					return plugin.regionGrowing.grow(seed, selection);
+				}
+			});
+		}
+
+		// four seeds with two labels in the corners, competing for the
+		// whole value range
+		final int[] cornerSeeds = { 0, width - 1, (height - 1) * width,
+				height * width - 1 };
+		final byte[] cornerLabels = { 1, 2, 1, 2 };
+		list.add(new Benchmark(prefix + "grow/seeds/4") {
+			final SelectionMask[] regions = new SelectionMask[LabelMap.MAX_LABELS + 1];
+
+			void setUp() {
+				plugin.regionGrowing.min_threshold = min;
+				plugin.regionGrowing.max_threshold = max;
+				plugin.regionGrowing.neighSize = 4;
+				regions[1] = new SelectionMask(width, height);
+				regions[2] = new SelectionMask(width, height);
+			}
+
+			void reset() {
+				regions[1].clear();
+				regions[2].clear();
+			}
+
+			long run() {
+				return plugin.regionGrowing.growSeeds(cornerSeeds,
+						cornerLabels, regions);
+			}
+		});
+
+		// threshold sweep answered by the component tree: every run moves
+		// min_threshold, the tree is built once in setUp()
+		for (int r = 0; r < regions.length; r++) {
+			final int lo = (r == 0) ? seedValue - band : min;
+			final int hi = (r == 0) ? seedValue + band : max;
+			final SelectionMask selection = new SelectionMask(width, height);
+			list.add(new Benchmark(prefix + "grow/" + regions[r]
+					+ "/4/componentTree") {
+				int toggle = 0;
+
+				void setUp() {
+					plugin.regionGrowing.min_threshold = lo;
+					plugin.regionGrowing.max_threshold = hi;
+					plugin.regionGrowing.neighSize = 4;
+					plugin.regionGrowing.useAdaptive = false;
+					plugin.regionGrowing.useComponentTree = true;
+					plugin.regionGrowing.grow(seed, selection);
+				}
+
+				void reset() {
+					selection.clear();
+					toggle ^= 1;
+					plugin.regionGrowing.min_threshold = lo - toggle;
+				}
+
+				long run() {
+					return plugin.regionGrowing.grow(seed, selection);
+				}
+			});
+		}
+
+		// all regions of the upper half of the value range at once
+		for (final int strips : new int[] { 1, 0 }) {
+			list.add(new Benchmark(prefix + "components/"
+					+ (strips == 1 ? "sequential" : "parallel")) {
+				void setUp() {
+					plugin.regionGrowing.useGradient = false;
+					plugin.regionGrowing.neighSize = 8;
+					plugin.regionGrowing.min_threshold = level;
+					plugin.regionGrowing.max_threshold = max;
+				}
+
+				long run() {
+					ConnectedComponents components = (strips == 1) ? ConnectedComponents
+							.of(plugin.regionGrowing, 1) : ConnectedComponents
+							.of(plugin.regionGrowing);
+					return components.getCount();
+				}
+			});
+		}
+
+		// building the tree: every run moves max_threshold
+		list.add(new Benchmark(prefix + "componentTree/build") {
+			int toggle = 0;
+
+			void setUp() {
+				plugin.regionGrowing.min_threshold = min;
+				plugin.regionGrowing.neighSize = 4;
+				plugin.regionGrowing.useAdaptive = false;
+				plugin.regionGrowing.useComponentTree = true;
+			}
+
+			void reset() {
+				toggle ^= 1;
+				// alternating bounds, so that neither tree can be reused
+				plugin.regionGrowing.min_threshold = min + toggle;
+				plugin.regionGrowing.max_threshold = max - toggle;
+			}
+
+			long run() {
+				return plugin.regionGrowing.grow(seed, new SelectionMask(
+						width, height));
+			}
+		});
+
+		for (final int kernel : new int[] { 3, 7, 15, 31 }) {
+			for (final boolean dilate : new boolean[] { false, true }) {
+				list.add(new Benchmark(prefix
+						+ (dilate ? "dilate/" : "erode/") + kernel + "x"
+						+ kernel) {
+					long run() {
+						return new ErosionDilatation(structures, kernel,
+								width, height, dilate).getFinalSelection()
+								.cardinality();
+					}
+				});
+			}
+		}
+
+		// window change: the whole output is recomposited
+		list.add(new Benchmark(prefix + "calculateOutputImage/full") {
+			int toggle = 0;
+
+			void setUp() {
+				plugin.calculateAutoWindow();
+				plugin.clearSelection();
+				plugin.calculateOutputImage();
+			}
+
+			void reset() {
+				toggle ^= 1;
+				plugin.window_center += (toggle == 1) ? 1 : -1;
+			}
+
+			long run() {
+				plugin.calculateOutputImage();
+				return toggle;
+			}
+		});
+
+		// selection change in a 64x64 square: only that part is recomposited
+		final SelectionMask square = new SelectionMask(width, height);
+		for (int y = height / 2; y < Math.min(height, height / 2 + 64); y++)
+			square.setRange(y, width / 2, Math.min(width, width / 2 + 64));
+		list.add(new Benchmark(prefix + "calculateOutputImage/incremental") {
+			boolean selected = false;
+
+			void reset() {
+				selected = !selected;
+				if (selected) {
+					plugin.addToSelection(square);
+				} else {
+					plugin.removeFromSelection(square);
+				}
+			}
+
+			long run() {
+				plugin.calculateOutputImage();
+				return selected ? 1 : 0;
+			}
+		});
+
+		list.add(new Benchmark(prefix + "addToSelection") {
+			void setUp() {
+				plugin.clearSelection();
+			}
+
+			long run() {
+				plugin.addToSelection(structures);
+				return 0;
+			}
+		});
+
+		// small regions: only the window of their bounding box is processed
+		list.add(new Benchmark(prefix + "addToSelection/small") {
+			void setUp() {
+				plugin.clearSelection();
+			}
+
+			long run() {
+				plugin.addToSelection(square);
+				return 0;
+			}
+		});
+
+		list.add(new Benchmark(prefix + "dilate/small/7x7") {
+			long run() {
+				return Morphology.dilate(square, 7).cardinality();
+			}
+		});
+
+		list.add(new Benchmark(prefix + "saveSelectionAsLabel") {
+			void setUp() {
+				plugin.replaceSelection(structures);
+			}
+
+			long run() {
+				plugin.saveSelectionAsLabel((byte) 1);
+				return 0;
+			}
+		});
+
+		list.add(new Benchmark(prefix + "selectLabel") {
+			void setUp() {
+				plugin.replaceSelection(structures);
+				plugin.saveSelectionAsLabel((byte) 1);
+			}
+
+			long run() {
+				plugin.selectLabel((byte) 1);
+				return 0;
+			}
+		});
+
+		list.add(new Benchmark(prefix + "clearLabel") {
+			void setUp() {
+				plugin.replaceSelection(structures);
+			}
+
+			void reset() {
+				plugin.saveSelectionAsLabel((byte) 1);
+			}
+
+			long run() {
+				plugin.clearLabel((byte) 1);
+				return 0;
+			}
+		});
+
+		return list;
+	}
+}
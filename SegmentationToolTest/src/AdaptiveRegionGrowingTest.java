@@ -0,0 +1,99 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// adaptive growing with a range wide enough to accept any value selects
+// and counts what the reference does with the full threshold range
+// (labels still stop it); on an object whose intensity drifts across the
+// image it follows the drift through the whole object without leaking into
+// the background.
+class AdaptiveRegionGrowingTest {
+
+	static void run() {
+		Random random = new Random(37);
+		for (int run = 0; run < 60; run++)
+			checkWideRange(random, run);
+		for (int run = 0; run < 10; run++)
+			checkDrift(random, run);
+	}
+
+	private static void checkWideRange(Random random, int run) {
+		final int width = 5 + random.nextInt(80);
+		final int height = 5 + random.nextInt(80);
+		short[] pixels = ReferenceGrowing.randomPixels(random, width, height,
+				2 + random.nextInt(60000));
+		byte[] labels = ReferenceGrowing.randomLabels(random, width, height);
+		RegionGrowing g = new RegionGrowing(width, height, pixels, labels,
+				null);
+		g.neighSize = (byte) (random.nextBoolean() ? 4 : 8);
+		g.stopAtOtherSegmentedRegions = random.nextBoolean();
+		g.useThresholdRange = true;
+		g.min_threshold = 0;
+		g.max_threshold = 65535;
+		g.useAdaptive = true;
+		g.adaptiveSigma = 1e6;
+
+		final int x = random.nextInt(width);
+		final int y = random.nextInt(height);
+		boolean[] expected = new boolean[width * height];
+		final int count = ReferenceGrowing.grow(g, pixels, labels, width,
+				height, x, y, expected);
+		SelectionMask selection = new SelectionMask(width, height);
+		final int actual = g.grow(
+				PixelInfo.createFromXY(x, y, width, height), selection);
+		final String what = "adaptive growing, " + g.neighSize
+				+ " neighbors, run " + run;
+		Check.equal(count, actual, what + " count");
+		Check.sameSelection(expected, selection, what);
+	}
+
+	// a bright rectangle on a dark background, its intensity rising by 3000
+	// from left to right with some noise; growing starts at its left end
+	private static void checkDrift(Random random, int run) {
+		final int width = 1024, height = 160;
+		final int x0 = 40, y0 = 30, x1 = 984, y1 = 130;
+		short[] pixels = new short[width * height];
+		boolean[] object = new boolean[width * height];
+		int objectSize = 0;
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				final double noise = random.nextGaussian() * 30;
+				final int i = y * width + x;
+				if (x >= x0 && x < x1 && y >= y0 && y < y1) {
+					object[i] = true;
+					objectSize++;
+					pixels[i] = (short) (20000 + 3000.0 * x / width + noise);
+				} else {
+					pixels[i] = (short) (5000 + noise);
+				}
+			}
+		}
+		byte[] labels = new byte[width * height];
+		RegionGrowing g = new RegionGrowing(width, height, pixels, labels,
+				null);
+		g.neighSize = (byte) (run % 2 == 0 ? 4 : 8);
+		g.useAdaptive = true;
+		g.adaptiveSigma = 4;
+
+		SelectionMask selection = new SelectionMask(width, height);
+		g.grow(PixelInfo.createFromXY(x0 + 2, (y0 + y1) / 2, width, height),
+				selection);
+		int inside = 0, outside = 0;
+		for (int i = 0; i < object.length; i++) {
+			if (selection.get(i)) {
+				if (object[i]) {
+					inside++;
+				} else {
+					outside++;
+				}
+			}
+		}
+		final String what = "adaptive growing on drift, run " + run;
+		Check.equal(0, outside, what + ", pixels outside the object");
+		Check.that(inside >= objectSize * 0.95, what + ", " + inside
+				+ " of " + objectSize + " object pixels");
+	}
+}
@@ -0,0 +1,51 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the assertions of the checks, which run without a test framework: a
+// failed check is reported with its description and counted, the run goes
+// on with the next one
+class Check {
+
+	// failures are only printed up to this number
+	private static final int MAX_REPORTED = 20;
+
+	private static int checks = 0;
+	private static int failures = 0;
+
+	static void that(boolean condition, String description) {
+		checks++;
+		if (condition)
+			return;
+		failures++;
+		if (failures <= MAX_REPORTED)
+			System.out.println("FAILED: " + description);
+	}
+
+	static void equal(long expected, long actual, String description) {
+		that(expected == actual, description + ": expected " + expected
+				+ ", got " + actual);
+	}
+
+	// the selection holds exactly the pixels marked in expected
+	static void sameSelection(boolean[] expected, SelectionMask actual,
+			String description) {
+		for (int i = 0; i < expected.length; i++) {
+			if (actual.get(i) != expected[i]) {
+				that(false, description + ": pixel " + i + " is "
+						+ (expected[i] ? "not " : "") + "selected");
+				return;
+			}
+		}
+		that(true, description);
+	}
+
+	static int getChecks() {
+		return checks;
+	}
+
+	static int getFailures() {
+		return failures;
+	}
+}
@@ -0,0 +1,119 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// growing from the component tree selects and counts the same pixels as
+// the reference growing, over sweeps of thresholds on one tree, with 4 and
+// 8 neighbors, and after labels changed under it
+class ComponentTreeTest {
+
+	static void run() {
+		Random random = new Random(7);
+		for (int run = 0; run < 60; run++) {
+			final int width = 5 + random.nextInt(60);
+			final int height = 5 + random.nextInt(60);
+			// few levels give large plateaus, many levels deep trees
+			short[] pixels = ReferenceGrowing.randomPixels(random, width,
+					height, 2 + random.nextInt(run % 3 == 0 ? 5 : 60000));
+			byte[] labels = ReferenceGrowing.randomLabels(random, width,
+					height);
+			RegionGrowing g = new RegionGrowing(width, height, pixels,
+					labels, null);
+			g.useComponentTree = true;
+
+			for (int query = 0; query < 40; query++) {
+				if (query % 10 == 0) {
+					g.neighSize = (byte) (random.nextBoolean() ? 4 : 8);
+					g.stopAtOtherSegmentedRegions = random.nextBoolean();
+				}
+				if (query % 13 == 5) {
+					for (int k = 0; k < 20; k++)
+						labels[random.nextInt(labels.length)] = (byte) random
+								.nextInt(3);
+					g.labelsChanged();
+				}
+				ReferenceGrowing.randomThresholds(random, g);
+
+				final int x = random.nextInt(width);
+				final int y = random.nextInt(height);
+				boolean[] expected = new boolean[width * height];
+				final int count = ReferenceGrowing.grow(g, pixels, labels,
+						width, height, x, y, expected);
+				SelectionMask selection = new SelectionMask(width, height);
+				final int actual = g.grow(
+						PixelInfo.createFromXY(x, y, width, height), selection);
+				String what = "component tree, " + g.neighSize
+						+ " neighbors, run " + run + " query " + query;
+				Check.equal(count, actual, what + " count");
+				Check.sameSelection(expected, selection, what);
+			}
+		}
+
+		for (int run = 0; run < 40; run++)
+			checkSweeps(random, run);
+	}
+
+	// the slider drags the tree is built for: one threshold moving in one
+	// direction while the other stays, repeated from the same seed on one
+	// engine, with the labels changing between the sweeps
+	private static void checkSweeps(Random random, int run) {
+		final int width = 5 + random.nextInt(60);
+		final int height = 5 + random.nextInt(60);
+		short[] pixels = ReferenceGrowing.randomPixels(random, width, height,
+				2 + random.nextInt(run % 2 == 0 ? 20 : 60000));
+		byte[] labels = ReferenceGrowing.randomLabels(random, width, height);
+		RegionGrowing g = new RegionGrowing(width, height, pixels, labels,
+				null);
+		g.useComponentTree = true;
+		g.neighSize = (byte) (random.nextBoolean() ? 4 : 8);
+		g.stopAtOtherSegmentedRegions = random.nextBoolean();
+
+		for (int sweep = 0; sweep < 4; sweep++) {
+			if (sweep > 0) {
+				for (int k = 0; k < 20; k++)
+					labels[random.nextInt(labels.length)] = (byte) random
+							.nextInt(3);
+				g.labelsChanged();
+			}
+			final int x = random.nextInt(width);
+			final int y = random.nextInt(height);
+			final int seed = pixels[y * width + x] & 0xffff;
+			// 0: raise max, 1: lower max, 2: lower min, 3: raise min
+			final int direction = random.nextInt(4);
+			g.min_threshold = (direction == 3) ? 0 : seed;
+			g.max_threshold = (direction == 1) ? 65535 : seed;
+			for (int step = 0; step < 30; step++) {
+				final int delta = 1 + random.nextInt(3000);
+				switch (direction) {
+				case 0:
+					g.max_threshold = Math.min(65535, g.max_threshold + delta);
+					break;
+				case 1:
+					g.max_threshold = Math.max(g.min_threshold, g.max_threshold
+							- delta);
+					break;
+				case 2:
+					g.min_threshold = Math.max(0, g.min_threshold - delta);
+					break;
+				default:
+					g.min_threshold = Math.min(g.max_threshold, g.min_threshold
+							+ delta);
+				}
+
+				boolean[] expected = new boolean[width * height];
+				final int count = ReferenceGrowing.grow(g, pixels, labels,
+						width, height, x, y, expected);
+				SelectionMask selection = new SelectionMask(width, height);
+				final int actual = g.grow(
+						PixelInfo.createFromXY(x, y, width, height), selection);
+				String what = "component tree sweep " + direction + ", run "
+						+ run + " sweep " + sweep + " step " + step;
+				Check.equal(count, actual, what + " count");
+				Check.sameSelection(expected, selection, what);
+			}
+		}
+	}
+}
@@ -0,0 +1,77 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// connected component labeling gives the same ids in one strip as in
+// several, and every component is the region the reference growing finds
+// from its first pixel, with 4 and 8 neighbors. ids follow the raster
+// order of the first pixels, sizes and largest() agree with the ids.
+class ConnectedComponentsTest {
+
+	static void run() {
+		Random random = new Random(11);
+		for (int run = 0; run < 80; run++) {
+			final int width = 1 + random.nextInt(150);
+			final int height = 1 + random.nextInt(150);
+			short[] pixels = ReferenceGrowing.randomPixels(random, width,
+					height, 2 + random.nextInt(4));
+			byte[] labels = ReferenceGrowing.randomLabels(random, width,
+					height);
+			RegionGrowing g = new RegionGrowing(width, height, pixels,
+					labels, null);
+			ReferenceGrowing.randomThresholds(random, g);
+			g.stopAtOtherSegmentedRegions = random.nextBoolean();
+			g.neighSize = (byte) (run % 2 == 0 ? 4 : 8);
+			final String what = g.neighSize + " neighbors, " + width + "x"
+					+ height + " run " + run;
+
+			ConnectedComponents single = ConnectedComponents.of(g, 1);
+			final int strips = 2 + random.nextInt(12);
+			ConnectedComponents striped = ConnectedComponents.of(g, strips);
+			Check.equal(single.getCount(), striped.getCount(), what
+					+ ", count in " + strips + " strips");
+			boolean same = true;
+			for (int i = 0; i < width * height && same; i++)
+				same = single.getId(i) == striped.getId(i);
+			Check.that(same, what + ", ids in " + strips + " strips");
+
+			// every component against the reference region of its first
+			// pixel (which is fillable, so reached again from a neighbor
+			// unless it is alone)
+			int nextId = 1;
+			boolean fillable = true;
+			for (int i = 0; i < width * height; i++) {
+				final int id = single.getId(i);
+				fillable &= (id != 0) == ReferenceGrowing.isFillable(g,
+						pixels, labels, i);
+				if (id == 0 || id < nextId)
+					continue;
+				Check.equal(nextId, id, what + ", raster order of ids");
+				nextId = id + 1;
+
+				boolean[] expected = new boolean[width * height];
+				ReferenceGrowing.grow(g, pixels, labels, width, height, i
+						% width, i / width, expected);
+				SelectionMask selection = new SelectionMask(width, height);
+				single.select(id, selection);
+				Check.sameSelection(expected, selection, what + ", component "
+						+ id);
+				Check.equal(selection.cardinality(), single.getSize(id), what
+						+ ", size of component " + id);
+			}
+			Check.that(fillable, what + ", ids of exactly the fillable pixels");
+			Check.equal(single.getCount(), nextId - 1, what
+					+ ", number of components");
+
+			int[] largest = single.largest(single.getCount());
+			Check.equal(single.getCount(), largest.length, what
+					+ ", largest()");
+			for (int k = 1; k < largest.length; k++)
+				Check.that(single.getSize(largest[k]) <= single
+						.getSize(largest[k - 1]), what + ", order of largest()");
+		}
+	}
+}
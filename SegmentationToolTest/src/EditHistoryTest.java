@@ -0,0 +1,165 @@
+import java.awt.Rectangle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// undo and redo restore exactly the states after each committed step, in
+// any order of undo, redo and new steps, with and without compression;
+// touched receives every label that changed; commits without a change add
+// no step; a small budget drops the oldest steps and keeps the newest ones
+// intact.
+class EditHistoryTest {
+
+	static void run() {
+		Random random = new Random(23);
+		for (int run = 0; run < 40; run++)
+			checkSequence(random, run, run % 2 == 0);
+		checkBudget(random);
+	}
+
+	// random steps, undos and redos against a list of the expected states
+	private static void checkSequence(Random random, int run, boolean compress) {
+		final int width = 1 + random.nextInt(150);
+		final int height = 1 + random.nextInt(80);
+		SelectionMask selection = new SelectionMask(width, height);
+		byte[] labels = new byte[width * height];
+		EditHistory history = new EditHistory(width, height);
+		history.setCompress(compress);
+		history.reset(selection, labels);
+		final String what = width + "x" + height + " run " + run;
+
+		// states.get(position) is the current state
+		List<boolean[]> selections = new ArrayList<boolean[]>();
+		List<byte[]> labelStates = new ArrayList<byte[]>();
+		selections.add(bits(selection));
+		labelStates.add(labels.clone());
+		int position = 0;
+
+		for (int op = 0; op < 60; op++) {
+			final int kind = random.nextInt(4);
+			if (kind < 2) {
+				Rectangle r = edit(random, selection, labels, width, height);
+				history.commit(selection, labels, r);
+				if (!Arrays.equals(bits(selection), selections.get(position))
+						|| !Arrays.equals(labels, labelStates.get(position))) {
+					// a real step: the undone states are gone
+					while (selections.size() > position + 1) {
+						selections.remove(selections.size() - 1);
+						labelStates.remove(labelStates.size() - 1);
+					}
+					selections.add(bits(selection));
+					labelStates.add(labels.clone());
+					position++;
+				}
+			} else {
+				final boolean undo = (kind == 2);
+				Check.that(history.canUndo() == (position > 0), what
+						+ ", canUndo at step " + position);
+				Check.that(
+						history.canRedo() == (position < selections.size() - 1),
+						what + ", canRedo at step " + position);
+				byte[] before = labels.clone();
+				boolean[] touched = new boolean[256];
+				Rectangle r = undo ? history.undo(selection, labels, touched)
+						: history.redo(selection, labels, touched);
+				if (undo ? position == 0 : position == selections.size() - 1) {
+					Check.that(r == null, what + ", nothing to "
+							+ (undo ? "undo" : "redo"));
+					continue;
+				}
+				position += undo ? -1 : 1;
+				boolean allTouched = true;
+				for (int i = 0; i < labels.length; i++) {
+					if (before[i] != labels[i])
+						allTouched &= touched[before[i] & 0xff]
+								&& touched[labels[i] & 0xff];
+				}
+				Check.that(allTouched, what + ", touched labels");
+			}
+			Check.that(Arrays.equals(selections.get(position),
+					bits(selection)), what + ", selection at step " + position
+					+ " after op " + op);
+			Check.that(Arrays.equals(labelStates.get(position), labels), what
+					+ ", labels at step " + position + " after op " + op);
+		}
+	}
+
+	// a budget for a few steps: undo goes back through the newest steps
+	// only, and every state on the way is right
+	private static void checkBudget(Random random) {
+		final int width = 256, height = 256;
+		SelectionMask selection = new SelectionMask(width, height);
+		byte[] labels = new byte[width * height];
+		EditHistory history = new EditHistory(width, height);
+		history.setCompress(false);
+		history.reset(selection, labels);
+		// random labels barely compress, each step takes 64 kB or so
+		history.setBudgetBytes(5L << 16);
+
+		List<byte[]> states = new ArrayList<byte[]>();
+		states.add(labels.clone());
+		for (int step = 0; step < 20; step++) {
+			for (int i = 0; i < labels.length; i++)
+				labels[i] = (byte) random.nextInt(256);
+			history.commit(selection, labels, new Rectangle(0, 0, width,
+					height));
+			states.add(labels.clone());
+		}
+		int undone = 0;
+		boolean[] touched = new boolean[256];
+		while (history.undo(selection, labels, touched) != null) {
+			undone++;
+			Check.that(
+					Arrays.equals(states.get(states.size() - 1 - undone),
+							labels), "budget, state after " + undone
+							+ " undos");
+		}
+		Check.that(undone >= 1 && undone < 20, "budget keeps only some steps ("
+				+ undone + " kept)");
+
+		history.setBudgetBytes(0);
+		Check.that(!history.canUndo() && !history.canRedo(),
+				"budget 0 drops all steps");
+	}
+
+	// change selection and labels within a random rectangle, returns a
+	// region covering the change (sometimes larger). sometimes the whole
+	// selection is cleared.
+	private static Rectangle edit(Random random, SelectionMask selection,
+			byte[] labels, int width, int height) {
+		if (random.nextInt(8) == 0) {
+			selection.clear();
+			return new Rectangle(0, 0, width, height);
+		}
+		final int x0 = random.nextInt(width), y0 = random.nextInt(height);
+		final int x1 = x0 + 1 + random.nextInt(width - x0);
+		final int y1 = y0 + 1 + random.nextInt(height - y0);
+		final int kind = random.nextInt(3);
+		for (int y = y0; y < y1; y++) {
+			for (int x = x0; x < x1; x++) {
+				if (kind != 1 && random.nextInt(3) == 0)
+					selection.set(x, y);
+				if (kind != 0 && random.nextInt(4) == 0)
+					labels[x + y * width] = (byte) random.nextInt(4);
+			}
+		}
+		Rectangle r = new Rectangle(x0, y0, x1 - x0, y1 - y0);
+		if (random.nextBoolean())
+			r = r.union(new Rectangle(random.nextInt(width), random
+					.nextInt(height), 1, 1));
+		return r;
+	}
+
+	private static boolean[] bits(SelectionMask selection) {
+		boolean[] bits = new boolean[selection.width * selection.height];
+		for (int i = 0; i < bits.length; i++)
+			bits[i] = selection.get(i);
+		return bits;
+	}
+}
@@ -0,0 +1,212 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the histogram answers its queries as they are computed directly from the
+// pixels: counts, min/max, mean and deviation, counts within a range and
+// percentiles; Otsu's threshold and the multi-level Otsu thresholds reach
+// the best between-class variance of all possible thresholds, and there
+// is one threshold less than classes even for images of fewer values.
+class IntensityHistogramTest {
+
+	static void run() {
+		Random random = new Random(29);
+		for (int run = 0; run < 60; run++) {
+			// small ranges (multi-level Otsu is exact there) and wide ones,
+			// also above 32767
+			final int n = 1 + random.nextInt(run % 10 == 0 ? 5000 : 500);
+			final int base = random.nextInt(60000);
+			final int range = 1 + random.nextInt(run % 2 == 0 ? 200 : 5000);
+			short[] pixels = new short[n];
+			for (int i = 0; i < n; i++)
+				pixels[i] = (short) (base + random.nextInt(range));
+			checkQueries(random, pixels, "run " + run);
+			checkOtsu(pixels, "run " + run);
+			if (range <= 200)
+				checkMultiOtsu(pixels, "run " + run);
+		}
+
+		// large enough to be counted in parallel strips
+		short[] pixels = new short[(1 << 20) + 12345];
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) random.nextInt(65536);
+		checkQueries(random, pixels, "parallel");
+
+		checkClusters(random);
+		checkFewValues(random);
+	}
+
+	private static void checkQueries(Random random, short[] pixels,
+			String what) {
+		IntensityHistogram h = IntensityHistogram.of(pixels);
+		int[] sorted = values(pixels);
+		Arrays.sort(sorted);
+		final int n = sorted.length;
+		Check.equal(n, h.getTotal(), what + ", total");
+		Check.equal(sorted[0], h.getMin(), what + ", min");
+		Check.equal(sorted[n - 1], h.getMax(), what + ", max");
+		int distinct = 1;
+		for (int i = 1; i < n; i++) {
+			if (sorted[i] != sorted[i - 1])
+				distinct++;
+		}
+		Check.equal(distinct, h.getNumValues(), what + ", different values");
+
+		double sum = 0, sumSq = 0;
+		for (int v : sorted) {
+			sum += v;
+			sumSq += (double) v * v;
+		}
+		final double mean = sum / n;
+		Check.that(Math.abs(mean - h.getMean()) < 1e-6, what + ", mean");
+		final double stddev = Math.sqrt(Math.max(0, sumSq / n - mean * mean));
+		Check.that(Math.abs(stddev - h.getStdDev()) < 1e-3, what
+				+ ", deviation");
+
+		for (int k = 0; k < 10; k++) {
+			final int lo = sorted[random.nextInt(n)] - random.nextInt(3);
+			final int hi = lo + random.nextInt(300);
+			int count = 0;
+			for (int v : sorted) {
+				if (v >= lo && v <= hi)
+					count++;
+			}
+			Check.equal(count, h.countInRange(lo, hi), what + ", count in ["
+					+ lo + ", " + hi + "]");
+			Check.equal(h.getCount(sorted[k % n]), countOf(sorted,
+					sorted[k % n]), what + ", count of " + sorted[k % n]);
+		}
+
+		// smallest value with at least fraction of the pixels at or below
+		for (double f : new double[] { 0, 0.005, 0.25, 0.5, 0.9, 0.995, 1 }) {
+			final long rank = Math.max(1, (long) Math.ceil(f * n));
+			Check.equal(sorted[(int) rank - 1], h.percentile(f), what
+					+ ", percentile " + f);
+		}
+	}
+
+	// the between-class variance of Otsu's threshold is the best one
+	private static void checkOtsu(short[] pixels, String what) {
+		IntensityHistogram h = IntensityHistogram.of(pixels);
+		int[] values = values(pixels);
+		double best = 0;
+		for (int t = h.getMin(); t < h.getMax(); t++)
+			best = Math.max(best, score(values, new int[] { t }));
+		final int t = h.otsu();
+		Check.that(t >= h.getMin() && t <= h.getMax(), what
+				+ ", otsu within the values");
+		Check.that(score(values, new int[] { t }) >= best * (1 - 1e-9), what
+				+ ", otsu threshold " + t + " is not the best");
+	}
+
+	// for ranges of at most 256 values every value is a bin of its own, so
+	// the 3 class thresholds must reach the best score of all pairs
+	private static void checkMultiOtsu(short[] pixels, String what) {
+		IntensityHistogram h = IntensityHistogram.of(pixels);
+		if (h.getMax() - h.getMin() < 2)
+			return;
+		int[] values = values(pixels);
+		double best = 0;
+		for (int t0 = h.getMin(); t0 < h.getMax(); t0++) {
+			for (int t1 = t0 + 1; t1 < h.getMax(); t1++)
+				best = Math.max(best, score(values, new int[] { t0, t1 }));
+		}
+		int[] t = h.multiOtsu(3);
+		Check.equal(2, t.length, what + ", number of thresholds");
+		if (t.length != 2)
+			return;
+		Check.that(t[0] < t[1], what + ", thresholds in order");
+		Check.that(score(values, t) >= best * (1 - 1e-9), what
+				+ ", multi-level Otsu thresholds are not the best");
+	}
+
+	// three well separated clusters are split between them
+	private static void checkClusters(Random random) {
+		final int[] centers = { 5000, 20000, 50000 };
+		final int[] lo = { 65535, 65535, 65535 }, hi = new int[3];
+		short[] pixels = new short[30000];
+		for (int i = 0; i < pixels.length; i++) {
+			final int c = i % 3;
+			final int v = centers[c] + (int) (random.nextGaussian() * 500);
+			pixels[i] = (short) v;
+			lo[c] = Math.min(lo[c], v);
+			hi[c] = Math.max(hi[c], v);
+		}
+		IntensityHistogram h = IntensityHistogram.of(pixels);
+		final int t = h.otsu();
+		Check.that(t >= hi[0] && t < lo[2], "clusters, otsu " + t);
+		int[] m = h.multiOtsu(3);
+		Check.that(m.length == 2 && m[0] >= hi[0] && m[0] < lo[1]
+				&& m[1] >= hi[1] && m[1] < lo[2], "clusters, multi-level otsu "
+				+ Arrays.toString(m));
+	}
+
+	// constant images and images of two neighboring values, in which not
+	// every class can be separated: the thresholds are still complete and
+	// in order, with the classes that do not fit left empty above max
+	private static void checkFewValues(Random random) {
+		for (int run = 0; run < 20; run++) {
+			final int base = random.nextInt(65535);
+			final int values = 1 + run % 2;
+			short[] pixels = new short[1 + random.nextInt(1000)];
+			for (int i = 0; i < pixels.length; i++)
+				pixels[i] = (short) (base + i % values);
+			IntensityHistogram h = IntensityHistogram.of(pixels);
+			final String what = values + " values, run " + run;
+			for (int classes = 2; classes <= 5; classes++) {
+				int[] t = h.multiOtsu(classes);
+				Check.equal(classes - 1, t.length, what + ", thresholds of "
+						+ classes + " classes");
+				for (int i = 0; i < t.length; i++) {
+					Check.that(t[i] >= h.getMin() && t[i] <= h.getMax()
+							&& (i == 0 || t[i - 1] <= t[i]), what
+							+ ", thresholds " + Arrays.toString(t));
+				}
+				if (values == 2)
+					Check.equal(h.getMin(), t[0], what
+							+ ", first threshold between the values");
+			}
+		}
+	}
+
+	// sum over the classes of (sum of values)^2 / count, which differs from
+	// the between-class variance by terms that do not depend on the
+	// thresholds. thresholds[i] is the last value of class i.
+	private static double score(int[] values, int[] thresholds) {
+		double[] sum = new double[thresholds.length + 1];
+		long[] count = new long[thresholds.length + 1];
+		for (int v : values) {
+			int c = 0;
+			while (c < thresholds.length && v > thresholds[c])
+				c++;
+			sum[c] += v;
+			count[c]++;
+		}
+		double score = 0;
+		for (int c = 0; c < sum.length; c++) {
+			if (count[c] > 0)
+				score += sum[c] * sum[c] / count[c];
+		}
+		return score;
+	}
+
+	private static int[] values(short[] pixels) {
+		int[] values = new int[pixels.length];
+		for (int i = 0; i < pixels.length; i++)
+			values[i] = pixels[i] & 0xffff;
+		return values;
+	}
+
+	private static int countOf(int[] sorted, int value) {
+		int count = 0;
+		for (int v : sorted) {
+			if (v == value)
+				count++;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,99 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the separable morphology gives the same masks as the original per pixel
+// kernel loop of ErosionDilatation (every selected pixel visits all pixels
+// of the kernel around it), for odd kernel sizes from 1 to 31 on random
+// masks of widths around the 64 bit word size. also checks opening,
+// closing and the changed pixels reported by ErosionDilatation.
+class MorphologyTest {
+
+	private static final int[] KERNELS = { 1, 3, 5, 7, 15, 31 };
+
+	static void run() {
+		Random random = new Random(3);
+		for (int run = 0; run < 80; run++) {
+			final int width = 1 + random.nextInt(run % 2 == 0 ? 200 : 70);
+			final int height = 1 + random.nextInt(60);
+			// dense masks for erosion, sparse ones for dilation
+			final int density = 1 + random.nextInt(9);
+			boolean[] mask = new boolean[width * height];
+			SelectionMask selection = new SelectionMask(width, height);
+			for (int i = 0; i < mask.length; i++) {
+				mask[i] = random.nextInt(10) < density;
+				if (mask[i])
+					selection.set(i);
+			}
+
+			for (int k : KERNELS) {
+				final String what = k + "x" + k + " on " + width + "x"
+						+ height + " run " + run;
+				boolean[] dilated = reference(mask, width, height, k, true);
+				boolean[] eroded = reference(mask, width, height, k, false);
+				Check.sameSelection(dilated, Morphology.dilate(selection, k),
+						"dilate " + what);
+				Check.sameSelection(eroded, Morphology.erode(selection, k),
+						"erode " + what);
+				Check.sameSelection(
+						reference(eroded, width, height, k, true),
+						Morphology.open(selection, k), "open " + what);
+				Check.sameSelection(
+						reference(dilated, width, height, k, false),
+						Morphology.close(selection, k), "close " + what);
+
+				ErosionDilatation d = new ErosionDilatation(selection, k,
+						width, height, true);
+				Check.sameSelection(dilated, d.getFinalSelection(),
+						"ErosionDilatation dilate " + what);
+				Check.sameSelection(changed(mask, dilated), d
+						.getChangedSelection(),
+						"ErosionDilatation dilate changes " + what);
+				ErosionDilatation e = new ErosionDilatation(selection, k,
+						width, height, false);
+				Check.sameSelection(eroded, e.getFinalSelection(),
+						"ErosionDilatation erode " + what);
+				Check.sameSelection(changed(mask, eroded), e
+						.getChangedSelection(),
+						"ErosionDilatation erode changes " + what);
+			}
+		}
+	}
+
+	// the kernel loop of the original ErosionDilatation: pixels outside of
+	// the image neither add nor remove anything
+	static boolean[] reference(boolean[] mask, int width, int height,
+			int kernel_size, boolean dilate) {
+		boolean[] result = mask.clone();
+		final int r = kernel_size / 2;
+		for (int i = 0; i < mask.length; i++) {
+			if (!mask[i])
+				continue;
+			final int x = i % width, y = i / width;
+			for (int dy = -r; dy <= r; dy++) {
+				for (int dx = -r; dx <= r; dx++) {
+					final int nx = x + dx, ny = y + dy;
+					if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+						continue;
+					if (mask[nx + ny * width])
+						continue;
+					if (dilate)
+						result[nx + ny * width] = true;
+					else
+						result[i] = false;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean[] changed(boolean[] before, boolean[] after) {
+		boolean[] changed = new boolean[before.length];
+		for (int i = 0; i < before.length; i++)
+			changed[i] = before[i] != after[i];
+		return changed;
+	}
+}
@@ -0,0 +1,105 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// growing several labeled seeds at once claims exactly the union of the
+// regions the reference growing finds from each seed, every pixel for one
+// label only, with 4 and 8 neighbors; and where two regions of clearly
+// different values meet, each seed ends up with its own region
+class MultiSeedRegionGrowingTest {
+
+	static void run() {
+		Random random = new Random(13);
+		for (int run = 0; run < 80; run++) {
+			final int width = 1 + random.nextInt(120);
+			final int height = 1 + random.nextInt(120);
+			short[] pixels = ReferenceGrowing.randomPixels(random, width,
+					height, 2 + random.nextInt(4));
+			byte[] labels = ReferenceGrowing.randomLabels(random, width,
+					height);
+			RegionGrowing g = new RegionGrowing(width, height, pixels,
+					labels, null);
+			ReferenceGrowing.randomThresholds(random, g);
+			g.stopAtOtherSegmentedRegions = random.nextBoolean();
+			g.neighSize = (byte) (run % 2 == 0 ? 4 : 8);
+			final String what = g.neighSize + " neighbors, " + width + "x"
+					+ height + " run " + run;
+
+			// seeds anywhere, also on pixels that are not fillable and
+			// several on the same pixel
+			final int numSeeds = 1 + random.nextInt(5);
+			int[] seeds = new int[numSeeds];
+			byte[] seedLabels = new byte[numSeeds];
+			SelectionMask[] regions = new SelectionMask[256];
+			boolean[] expected = new boolean[width * height];
+			for (int s = 0; s < numSeeds; s++) {
+				seeds[s] = random.nextInt(width * height);
+				seedLabels[s] = (byte) (1 + random.nextInt(3));
+				if (regions[seedLabels[s]] == null)
+					regions[seedLabels[s]] = new SelectionMask(width, height);
+				ReferenceGrowing.grow(g, pixels, labels, width, height,
+						seeds[s] % width, seeds[s] / width, expected);
+			}
+			final int claimed = g.growSeeds(seeds, seedLabels, regions);
+
+			SelectionMask union = new SelectionMask(width, height);
+			int sum = 0;
+			boolean disjoint = true;
+			for (SelectionMask region : regions) {
+				if (region == null)
+					continue;
+				SelectionMask common = union.copy();
+				common.and(region);
+				disjoint &= common.isEmpty();
+				union.or(region);
+				sum += region.cardinality();
+			}
+			Check.that(disjoint, what + ", every pixel claimed once");
+			Check.equal(sum, claimed, what + ", claimed count");
+			Check.sameSelection(expected, union, what + ", union of regions");
+			for (int s = 0; s < numSeeds; s++)
+				Check.that(union.get(seeds[s]), what + ", seed " + s
+						+ " claimed");
+		}
+		checkCompetition();
+	}
+
+	// left half around 1000, right half around 1400: seeds of label 1 on
+	// the left and of label 2 on the right split the image in the middle
+	private static void checkCompetition() {
+		Random random = new Random(17);
+		final int width = 256, height = 128;
+		short[] pixels = new short[width * height];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++)
+				pixels[x + y * width] = (short) ((x < width / 2 ? 1000 : 1400) + random
+						.nextInt(50));
+		}
+		RegionGrowing g = new RegionGrowing(width, height, pixels,
+				new byte[width * height], null);
+		g.min_threshold = 0;
+		g.max_threshold = 65535;
+		int[] seeds = { (height / 2) * width + 10,
+				(height / 2) * width + width - 10, 10, width * height - 10 };
+		byte[] seedLabels = { 1, 2, 1, 2 };
+		for (byte neighSize : new byte[] { 4, 8 }) {
+			g.neighSize = neighSize;
+			SelectionMask[] regions = new SelectionMask[256];
+			regions[1] = new SelectionMask(width, height);
+			regions[2] = new SelectionMask(width, height);
+			g.growSeeds(seeds, seedLabels, regions);
+			int wrong = 0;
+			for (int y = 0; y < height; y++) {
+				for (int x = 0; x < width; x++) {
+					if (regions[1].get(x, y) != (x < width / 2))
+						wrong++;
+				}
+			}
+			Check.equal(0, wrong, neighSize
+					+ " neighbors, pixels of the wrong half in region 1");
+		}
+	}
+}
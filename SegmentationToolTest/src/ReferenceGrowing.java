@@ -0,0 +1,87 @@
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// the plain breadth-first region growing the engines are checked against,
+// written for clarity: its own neighbor offsets and bounds checks, its own
+// inclusion test on the pixel and label arrays. it follows the contract of
+// RegionGrowing.grow(): the start pixel is selected but not tested, the
+// count includes it only if it is reached again from a neighbor.
+// also makes the random test images.
+class ReferenceGrowing {
+
+	// 4 neighbors first, then the diagonal ones
+	private static final int[] DX = { 1, 0, -1, 0, 1, 1, -1, -1 };
+	private static final int[] DY = { 0, 1, 0, -1, -1, 1, 1, -1 };
+
+	// a pixel joins a region under the threshold and label criteria of g
+	// (gradients are not used by the checks)
+	static boolean isFillable(RegionGrowing g, short[] pixels, byte[] labels,
+			int idx) {
+		final int v = pixels[idx] & 0xffff;
+		if (!g.useThresholdRange || v < g.min_threshold
+				|| v > g.max_threshold)
+			return false;
+		return !(g.stopAtOtherSegmentedRegions && labels[idx] != 0);
+	}
+
+	// grow from (x, y) with the criteria and neighborhood of g, marking the
+	// region in selected. returns the count as RegionGrowing.grow() does.
+	static int grow(RegionGrowing g, short[] pixels, byte[] labels,
+			int width, int height, int x, int y, boolean[] selected) {
+		boolean[] visited = new boolean[width * height];
+		ArrayDeque<Integer> queue = new ArrayDeque<Integer>();
+		queue.add(x + y * width);
+		selected[x + y * width] = true;
+		int count = 0;
+		while (!queue.isEmpty()) {
+			final int idx = queue.poll();
+			final int px = idx % width, py = idx / width;
+			for (int i = 0; i < g.neighSize; i++) {
+				final int nx = px + DX[i], ny = py + DY[i];
+				if (nx < 0 || ny < 0 || nx >= width || ny >= height)
+					continue;
+				final int n = nx + ny * width;
+				if (visited[n] || !isFillable(g, pixels, labels, n))
+					continue;
+				visited[n] = true;
+				selected[n] = true;
+				count++;
+				queue.add(n);
+			}
+		}
+		return count;
+	}
+
+	// random values of a few levels (spread over the 16 bit range, so that
+	// values above 32767 occur), with regions of every size
+	static short[] randomPixels(Random random, int width, int height,
+			int levels) {
+		short[] pixels = new short[width * height];
+		final int step = 65535 / Math.max(1, levels - 1);
+		for (int i = 0; i < pixels.length; i++)
+			pixels[i] = (short) (random.nextInt(levels) * step);
+		return pixels;
+	}
+
+	// about one label in every tenth pixel
+	static byte[] randomLabels(Random random, int width, int height) {
+		byte[] labels = new byte[width * height];
+		for (int i = 0; i < labels.length; i++) {
+			if (random.nextInt(10) == 0)
+				labels[i] = (byte) (1 + random.nextInt(3));
+		}
+		return labels;
+	}
+
+	// thresholds around one or more of the levels
+	static void randomThresholds(Random random, RegionGrowing g) {
+		final int a = random.nextInt(65536), b = random.nextInt(65536);
+		g.min_threshold = Math.min(a, b);
+		g.max_threshold = Math.max(a, b);
+	}
+}
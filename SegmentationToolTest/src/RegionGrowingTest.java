@@ -0,0 +1,52 @@
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// every growing engine (queue, scanline, parallel strips) selects and
+// counts the same pixels as the reference growing, with 4 and with 8
+// neighbors, on random images with labels and at random start pixels
+class RegionGrowingTest {
+
+	private static final byte[] ENGINES = { RegionGrowing.ENGINE_QUEUE,
+			RegionGrowing.ENGINE_SCANLINE, RegionGrowing.ENGINE_PARALLEL };
+
+	static void run() {
+		Random random = new Random(5);
+		for (int run = 0; run < 400; run++) {
+			// narrow, wide and single row/column images included
+			final int width = 1 + random.nextInt(run % 2 == 0 ? 150 : 40);
+			final int height = 1 + random.nextInt(run % 3 == 0 ? 150 : 40);
+			short[] pixels = ReferenceGrowing.randomPixels(random, width,
+					height, 2 + random.nextInt(6));
+			byte[] labels = ReferenceGrowing.randomLabels(random, width,
+					height);
+			RegionGrowing g = new RegionGrowing(width, height, pixels,
+					labels, null);
+			ReferenceGrowing.randomThresholds(random, g);
+			g.stopAtOtherSegmentedRegions = random.nextBoolean();
+
+			final int x = random.nextInt(width), y = random.nextInt(height);
+			for (byte neighSize : new byte[] { 4, 8 }) {
+				g.neighSize = neighSize;
+				boolean[] expected = new boolean[width * height];
+				final int count = ReferenceGrowing.grow(g, pixels, labels,
+						width, height, x, y, expected);
+				for (byte engine : ENGINES) {
+					g.engine = engine;
+					SelectionMask selection = new SelectionMask(width, height);
+					final int actual = g.grow(
+							PixelInfo.createFromXY(x, y, width, height),
+							selection);
+					String what = "engine " + engine + ", " + neighSize
+							+ " neighbors, " + width + "x" + height
+							+ " run " + run;
+					Check.equal(count, actual, what + " count");
+					Check.sameSelection(expected, selection, what);
+				}
+			}
+		}
+	}
+}
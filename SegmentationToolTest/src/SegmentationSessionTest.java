@@ -0,0 +1,134 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// a written session reads back with the same parameters, label names,
+// colors and labels of every slice; a file with any changed bit (other
+// than in the reserved bytes) or cut short anywhere is rejected with an
+// IOException instead of being loaded.
+class SegmentationSessionTest {
+
+	static void run() {
+		Random random = new Random(31);
+		try {
+			Path dir = Files.createTempDirectory("sessions");
+			Path file = dir.resolve("test" + SegmentationSession.EXTENSION);
+			try {
+				for (int run = 0; run < 30; run++)
+					checkRoundTrip(random, file, run);
+				checkCorrupt(random, file);
+			} finally {
+				Files.deleteIfExists(file);
+				Files.delete(dir);
+			}
+		} catch (IOException e) {
+			Check.that(false, "sessions: " + e);
+		}
+	}
+
+	private static void checkRoundTrip(Random random, Path file, int run)
+			throws IOException {
+		SegmentationSession s = randomSession(random);
+		s.write(file);
+		SegmentationSession r = SegmentationSession.read(file);
+		final String what = "session " + s.width + "x" + s.height + "x"
+				+ s.depth + ", run " + run;
+		Check.equal(s.width, r.width, what + ", width");
+		Check.equal(s.height, r.height, what + ", height");
+		Check.equal(s.depth, r.depth, what + ", depth");
+		Check.equal(s.window_center, r.window_center, what + ", window center");
+		Check.equal(s.window_width, r.window_width, what + ", window width");
+		Check.equal(s.min_threshold, r.min_threshold, what + ", min threshold");
+		Check.equal(s.max_threshold, r.max_threshold, what + ", max threshold");
+		Check.that(s.useThresholdRange == r.useThresholdRange
+				&& s.stopAtOtherSegmentedRegions == r.stopAtOtherSegmentedRegions,
+				what + ", flags");
+		Check.equal(s.neighSize, r.neighSize, what + ", neighborhood");
+		Check.equal(s.engine, r.engine, what + ", engine");
+		Check.that(Arrays.equals(s.labelNames, r.labelNames), what
+				+ ", label names");
+		Check.that(Arrays.equals(s.labelColors, r.labelColors), what
+				+ ", label colors");
+		Check.that(Arrays.deepEquals(s.labels, r.labels), what + ", labels");
+	}
+
+	// every changed bit and every shorter length of one file
+	private static void checkCorrupt(Random random, Path file)
+			throws IOException {
+		SegmentationSession s = randomSession(random);
+		s.write(file);
+		final byte[] original = Files.readAllBytes(file);
+		for (int i = 0; i < original.length; i++) {
+			// the reserved short after the version is not checked
+			if (i == 6 || i == 7)
+				continue;
+			for (int bit = 0; bit < 8; bit++) {
+				byte[] data = original.clone();
+				data[i] ^= (byte) (1 << bit);
+				Files.write(file, data);
+				Check.that(isRejected(file), "session with bit " + bit
+						+ " of byte " + i + " changed was loaded");
+			}
+		}
+		for (int length = 0; length < original.length; length++) {
+			Files.write(file, Arrays.copyOf(original, length));
+			Check.that(isRejected(file), "session cut to " + length
+					+ " bytes was loaded");
+		}
+	}
+
+	private static boolean isRejected(Path file) {
+		try {
+			SegmentationSession.read(file);
+			return false;
+		} catch (IOException e) {
+			return true;
+		} catch (RuntimeException e) {
+			// rejected, but not as a damaged file
+			return false;
+		}
+	}
+
+	private static SegmentationSession randomSession(Random random) {
+		SegmentationSession s = new SegmentationSession();
+		s.width = 1 + random.nextInt(100);
+		s.height = 1 + random.nextInt(100);
+		s.depth = 1 + random.nextInt(random.nextBoolean() ? 1 : 8);
+		s.window_center = random.nextInt(65536);
+		s.window_width = 1 + random.nextInt(65536);
+		s.min_threshold = random.nextInt(65536);
+		s.max_threshold = random.nextInt(65536);
+		s.useThresholdRange = random.nextBoolean();
+		s.stopAtOtherSegmentedRegions = random.nextBoolean();
+		s.neighSize = (byte) (random.nextBoolean() ? 4 : 8);
+		s.engine = (byte) random.nextInt(3);
+		final int numLabels = random.nextInt(6);
+		s.labelNames = new String[numLabels];
+		s.labelColors = new int[numLabels];
+		for (int i = 0; i < numLabels; i++) {
+			s.labelNames[i] = "label " + i + (i % 2 == 0 ? " \u00e4\u00df" : "");
+			s.labelColors[i] = random.nextInt();
+		}
+		s.labels = new byte[s.depth][];
+		for (int z = 0; z < s.depth; z++) {
+			// runs of random length, so slices compress to varying sizes
+			byte[] slice = new byte[s.width * s.height];
+			int i = 0;
+			while (i < slice.length) {
+				final int n = Math.min(slice.length - i,
+						1 + random.nextInt(z % 2 == 0 ? 300 : 3));
+				Arrays.fill(slice, i, i + n, (byte) random.nextInt(numLabels + 1));
+				i += n;
+			}
+			s.labels[z] = slice;
+		}
+		return s;
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// checks of the segmentation tool: the fast paths against plain reference
+// implementations and the behavior of its components, on random data.
+// runs without a test framework and without ImageJ on the screen.
+//
+// usage, with ij.jar and the compiled plugin classes on the class path:
+// java -cp ij.jar:SegmentationTool/plugins:SegmentationToolTest/bin
+// SegmentationTests
+// exits with status 1 if a check failed.
+public class SegmentationTests {
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+
+		run("morphology", new Runnable() {
+			public void run() {
+				MorphologyTest.run();
+			}
+		});
+		run("region growing engines", new Runnable() {
+			public void run() {
+				RegionGrowingTest.run();
+			}
+		});
+		run("volume growing", new Runnable() {
+			public void run() {
+				VolumeRegionGrowingTest.run();
+			}
+		});
+		run("undo history", new Runnable() {
+			public void run() {
+				EditHistoryTest.run();
+			}
+		});
+		run("intensity histogram", new Runnable() {
+			public void run() {
+				IntensityHistogramTest.run();
+			}
+		});
+		run("component tree", new Runnable() {
+			public void run() {
+				ComponentTreeTest.run();
+			}
+		});
+		run("sessions", new Runnable() {
+			public void run() {
+				SegmentationSessionTest.run();
+			}
+		});
+		run("adaptive growing", new Runnable() {
+			public void run() {
+				AdaptiveRegionGrowingTest.run();
+			}
+		});
+		run("connected components", new Runnable() {
+			public void run() {
+				ConnectedComponentsTest.run();
+			}
+		});
+		run("multi-seed growing", new Runnable() {
+			public void run() {
+				MultiSeedRegionGrowingTest.run();
+			}
+		});
+
+		System.out.println(Check.getChecks() + " checks, "
+				+ Check.getFailures() + " failed");
+		if (Check.getFailures() > 0)
+			System.exit(1);
+	}
+
+	private static void run(String name, Runnable test) {
+		final int before = Check.getFailures();
+		final long startTime = System.currentTimeMillis();
+		test.run();
+		System.out.println(name + ": "
+				+ (Check.getFailures() == before ? "ok" : "FAILED") + " ("
+				+ (System.currentTimeMillis() - startTime) + " ms)");
+	}
+}
@@ -0,0 +1,125 @@
+import java.util.ArrayDeque;
+import java.util.Random;
+
+/**
+ * @author Aleksandar Cirkovic
+ *
+ */
+
+// growing through a stack selects and counts the same voxels as a plain
+// breadth-first growing over the 6, 18 or 26 neighbors, on random stacks
+// with labels and at random start voxels; masks left null are created for
+// exactly the slices the region reaches
+class VolumeRegionGrowingTest {
+
+	private static final int[] CONNECTIVITIES = { 6, 18, 26 };
+
+	static void run() {
+		Random random = new Random(19);
+		for (int run = 0; run < 150; run++) {
+			final int width = 1 + random.nextInt(40);
+			final int height = 1 + random.nextInt(30);
+			final int depth = 1 + random.nextInt(12);
+			short[][] voxels = new short[depth][];
+			byte[][] labels = new byte[depth][];
+			final int levels = 2 + random.nextInt(4);
+			for (int z = 0; z < depth; z++) {
+				voxels[z] = ReferenceGrowing.randomPixels(random, width,
+						height, levels);
+				labels[z] = ReferenceGrowing.randomLabels(random, width,
+						height);
+			}
+			VolumeRegionGrowing g = grower(width, height, voxels, labels);
+			final int a = random.nextInt(65536), b = random.nextInt(65536);
+			g.min_threshold = Math.min(a, b);
+			g.max_threshold = Math.max(a, b);
+			g.stopAtOtherSegmentedRegions = random.nextBoolean();
+
+			final int x = random.nextInt(width), y = random.nextInt(height);
+			final int z = random.nextInt(depth);
+			for (int connectivity : CONNECTIVITIES) {
+				g.connectivity = connectivity;
+				boolean[][] expected = new boolean[depth][width * height];
+				final int count = reference(g, voxels, labels, width, height,
+						x, y, z, expected);
+				final boolean allocate = run % 2 == 0;
+				SelectionMask[] selection = new SelectionMask[depth];
+				for (int s = 0; allocate && s < depth; s++)
+					selection[s] = new SelectionMask(width, height);
+				final int actual = g.grow(x, y, z, selection);
+				String what = connectivity + " neighbors, " + width + "x"
+						+ height + "x" + depth + " run " + run;
+				Check.equal(count, actual, what + " count");
+				for (int s = 0; s < depth; s++) {
+					if (!allocate)
+						Check.that(
+								(selection[s] != null) == reaches(expected[s]),
+								what + ", mask of slice " + s);
+					if (selection[s] != null)
+						Check.sameSelection(expected[s], selection[s], what
+								+ ", slice " + s);
+				}
+			}
+		}
+	}
+
+	private static boolean reaches(boolean[] slice) {
+		for (boolean selected : slice) {
+			if (selected)
+				return true;
+		}
+		return false;
+	}
+
+	private static VolumeRegionGrowing grower(int width, int height,
+			short[][] voxels, byte[][] labels) {
+		StackVolume volume = new StackVolume(width, height, voxels, labels);
+		return new VolumeRegionGrowing(volume, volume);
+	}
+
+	// breadth-first growing over all neighbors within the connectivity
+	// (1, 2 or 3 unit moves), counted as RegionGrowing.grow() counts
+	private static int reference(VolumeRegionGrowing g, short[][] voxels,
+			byte[][] labels, int width, int height, int x, int y, int z,
+			boolean[][] selected) {
+		final int depth = voxels.length;
+		final int maxSteps = (g.connectivity == 6) ? 1
+				: (g.connectivity == 18) ? 2 : 3;
+		boolean[][] visited = new boolean[depth][width * height];
+		ArrayDeque<int[]> queue = new ArrayDeque<int[]>();
+		queue.add(new int[] { x, y, z });
+		selected[z][x + y * width] = true;
+		int count = 0;
+		while (!queue.isEmpty()) {
+			final int[] p = queue.poll();
+			for (int dz = -1; dz <= 1; dz++) {
+				for (int dy = -1; dy <= 1; dy++) {
+					for (int dx = -1; dx <= 1; dx++) {
+						final int steps = Math.abs(dx) + Math.abs(dy)
+								+ Math.abs(dz);
+						if (steps == 0 || steps > maxSteps)
+							continue;
+						final int nx = p[0] + dx, ny = p[1] + dy, nz = p[2]
+								+ dz;
+						if (nx < 0 || ny < 0 || nz < 0 || nx >= width
+								|| ny >= height || nz >= depth)
+							continue;
+						final int idx = nx + ny * width;
+						final int v = voxels[nz][idx] & 0xffff;
+						if (visited[nz][idx] || v < g.min_threshold
+								|| v > g.max_threshold)
+							continue;
+						if (g.stopAtOtherSegmentedRegions
+								&& labels[nz][idx] != 0)
+							continue;
+						visited[nz][idx] = true;
+						selected[nz][idx] = true;
+						count++;
+						queue.add(new int[] { nx, ny, nz });
+					}
+				}
+			}
+		}
+		return count;
+	}
+}